@@ -0,0 +1,257 @@
+package com.etsy.jenkins;
+
+import hudson.EnvVars;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Items;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Result;
+import hudson.scm.NullSCM;
+import hudson.scm.SCM;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds earlier successful sub-builds that ran with the same inputs as a
+ * sub-build about to be scheduled, so that their result can be reused.
+ *
+ * The inputs of a sub-build are the parameters propagated to it (with the
+ * content of file parameters), the master build's SCM revision and the
+ * sub-project's configuration. Their fingerprints are kept in
+ * com.etsy.jenkins.BuildAvoidance.xml in the Jenkins root directory,
+ * most recently used first out of {@link #MAX_ENTRIES}.
+ *
+ * A sub-project that checks out anything but the master project's SCM is
+ * never avoided, as its revision is only known once it has checked out.
+ */
+@Singleton
+/*package*/ class BuildAvoidance {
+
+  private static final Logger LOGGER =
+      Logger.getLogger(BuildAvoidance.class.getName());
+
+  private static final String FILE_NAME = "com.etsy.jenkins.BuildAvoidance.xml";
+  private static final int MAX_ENTRIES = 10000;
+
+  // Environment variables SCMs report the checked out revision in.
+  private static final String[] REVISION_VARIABLES = {
+      "GIT_COMMIT", "SVN_REVISION", "MERCURIAL_REVISION", "P4_CHANGELIST"};
+
+  private final Hudson hudson;
+  private final ParametersActionPropagator parametersActionPropagator;
+  private final ScheduledExecutorService timer;
+  private final ExecutorService worker;
+  private final long saveWindow;
+
+  // Fingerprint to sub-build number, in access order.
+  private LinkedHashMap<String, Integer> builds;
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  // Held while writing, so that a slow save does not race the next one.
+  private final Object saveLock = new Object();
+
+  @Inject
+  public BuildAvoidance(
+      Hudson hudson,
+      ParametersActionPropagator parametersActionPropagator,
+      ScheduledExecutorService timer,
+      ExecutorService worker,
+      @MasterProject.SaveWindow long saveWindow) {
+    this.hudson = hudson;
+    this.parametersActionPropagator = parametersActionPropagator;
+    this.timer = timer;
+    this.worker = worker;
+    this.saveWindow = saveWindow;
+  }
+
+  /**
+   * @return the fingerprint of the inputs {@code project} would be built
+   *     with for {@code masterBuild}, or {@code null} if there is nothing to
+   *     tell its builds apart by or its SCM revision cannot be known yet
+   */
+  public String fingerprint(MasterBuild masterBuild, AbstractProject project)
+      throws IOException {
+    SCM scm = masterBuild.getProject().getScm();
+    if (!isCoveredBy(project.getScm(), scm)) {
+      return null;
+    }
+    SortedMap<String, String> inputs = Maps.<String, String>newTreeMap();
+    for (ParametersAction action :
+        parametersActionPropagator.getPropagatedActions(masterBuild, project)) {
+      if (action == null) {
+        continue;
+      }
+      for (ParameterValue value : action.getParameters()) {
+        if (value instanceof PropagatedFileParameterValue) {
+          // Digested once per master build by its propagation plan.
+          String digest = ((PropagatedFileParameterValue) value).getDigest();
+          inputs.put("file:" + value.getName(), digest != null ? digest : "");
+        } else {
+          EnvVars vars = new EnvVars();
+          value.buildEnvVars(masterBuild, vars);
+          for (Map.Entry<String, String> var : vars.entrySet()) {
+            inputs.put("param:" + var.getKey(), var.getValue());
+          }
+        }
+      }
+    }
+    if (scm != null) {
+      Map<String, String> vars = Maps.<String, String>newHashMap();
+      scm.buildEnvVars(masterBuild, vars);
+      for (String name : REVISION_VARIABLES) {
+        if (vars.containsKey(name)) {
+          inputs.put("scm:" + name, vars.get(name));
+        }
+      }
+    }
+    if (inputs.isEmpty()) {
+      return null;
+    }
+    inputs.put("config", Util.getDigestOf(project.getConfigFile().getFile()));
+    return fingerprint(project.getFullName(), inputs);
+  }
+
+  /**
+   * @return whether a sub-project with {@code subScm} checks out nothing,
+   *     or the same as the master project's {@code masterScm}, so that the
+   *     master build's revision stands for its own
+   */
+  private static boolean isCoveredBy(SCM subScm, SCM masterScm) {
+    if (subScm == null || subScm instanceof NullSCM) {
+      return true;
+    }
+    // Compared by configuration; SCMs do not implement equals().
+    return masterScm != null
+        && Items.XSTREAM.toXML(subScm).equals(Items.XSTREAM.toXML(masterScm));
+  }
+
+  /**
+   * @return the digest of the project's full name and its inputs, in order
+   */
+  /*package*/ static String fingerprint(
+      String fullName, SortedMap<String, String> inputs) {
+    StringBuilder fingerprint = new StringBuilder(fullName);
+    for (Map.Entry<String, String> input : inputs.entrySet()) {
+      fingerprint.append('\n')
+          .append(input.getKey()).append('=').append(input.getValue());
+    }
+    return Util.getDigestOf(fingerprint.toString());
+  }
+
+  /**
+   * @return an earlier successful build of {@code project} with the given
+   *     fingerprint, or {@code null}
+   */
+  public synchronized AbstractBuild find(
+      AbstractProject project, String fingerprint) {
+    Integer buildNumber = getBuilds().remove(fingerprint);
+    if (buildNumber == null) {
+      return null;
+    }
+    AbstractBuild build = project.getBuildByNumber(buildNumber);
+    if (build == null || build.isBuilding()
+        || build.getResult() != Result.SUCCESS) {
+      scheduleSave();
+      return null;
+    }
+    getBuilds().put(fingerprint, buildNumber);
+    return build;
+  }
+
+  /**
+   * Remembers a successful build with the given fingerprint.
+   */
+  public synchronized void record(String fingerprint, AbstractBuild build) {
+    remember(getBuilds(), fingerprint, build.getNumber(), MAX_ENTRIES);
+    scheduleSave();
+  }
+
+  /**
+   * Puts {@code fingerprint} last in {@code builds}, dropping the entries
+   * used least recently beyond {@code maxEntries}.
+   */
+  /*package*/ static void remember(LinkedHashMap<String, Integer> builds,
+      String fingerprint, int buildNumber, int maxEntries) {
+    builds.remove(fingerprint);
+    builds.put(fingerprint, buildNumber);
+    Iterator<String> eldest = builds.keySet().iterator();
+    while (builds.size() > maxEntries) {
+      eldest.next();
+      eldest.remove();
+    }
+  }
+
+  private LinkedHashMap<String, Integer> getBuilds() {
+    if (builds == null) {
+      builds = load();
+    }
+    return builds;
+  }
+
+  @SuppressWarnings("unchecked")
+  private LinkedHashMap<String, Integer> load() {
+    XmlFile file = getFile();
+    if (file.exists()) {
+      try {
+        return (LinkedHashMap<String, Integer>) file.read();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+      }
+    }
+    return new LinkedHashMap<String, Integer>();
+  }
+
+  private void scheduleSave() {
+    if (dirty.compareAndSet(false, true)) {
+      timer.schedule(new Runnable() {
+        public void run() {
+          worker.execute(new Runnable() {
+            public void run() {
+              save();
+            }
+          });
+        }
+      }, saveWindow, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void save() {
+    synchronized (saveLock) {
+      LinkedHashMap<String, Integer> snapshot;
+      // Copied so that lookups are not held up while the file is written.
+      synchronized (this) {
+        dirty.set(false);
+        snapshot = new LinkedHashMap<String, Integer>(getBuilds());
+      }
+      XmlFile file = getFile();
+      try {
+        file.write(snapshot);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+      }
+    }
+  }
+
+  private XmlFile getFile() {
+    return new XmlFile(
+        Hudson.XSTREAM, new File(hudson.getRootDir(), FILE_NAME));
+  }
+}
@@ -0,0 +1,62 @@
+package com.etsy.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Reuses earlier successful sub-builds that ran with the same inputs
+ * instead of building them again.
+ */
+public class BuildAvoidanceJobProperty extends JobProperty<MasterProject> {
+
+  @DataBoundConstructor
+  public BuildAvoidanceJobProperty() {}
+
+  @Override
+  public boolean prebuild(AbstractBuild build, BuildListener listener) {
+    ((MasterBuild) build).setBuildAvoidance(true);
+    return true;
+  }
+
+  @Override
+  public JobPropertyDescriptor getDescriptor() {
+    return DESCRIPTOR;
+  }
+
+  @Extension
+  public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+  public static class DescriptorImpl extends JobPropertyDescriptor {
+
+    @Override
+    public String getDisplayName() {
+      return "Reuse Sub-Builds with Unchanged Inputs";
+    }
+
+    @Override
+    public boolean isApplicable(Class<? extends Job> jobType) {
+        return jobType.equals(MasterProject.class);
+    }
+
+    @Override
+    public JobProperty<?> newInstance(
+        StaplerRequest req,
+        JSONObject formData)
+        throws Descriptor.FormException {
+      JSONObject property = formData.optJSONObject("buildAvoidanceJobProperty");
+      if (property == null) {
+        return null;
+      }
+      return new BuildAvoidanceJobProperty();
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.etsy.jenkins;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind persistence for master builds.
+ *
+ * A master build with hundreds of sub-builds changes many times in a burst.
+ * Instead of rewriting build.xml on every change, changed builds are marked
+ * dirty and saved once per save window. Each save goes through
+ * {@code Run.save()}, which writes the file atomically, on the worker
+ * executor; the timer only marks the end of the window.
+ */
+@Singleton
+/*package*/ class BuildSaver {
+
+  private static final Logger LOGGER =
+      Logger.getLogger(BuildSaver.class.getName());
+
+  private final ScheduledExecutorService timer;
+  private final ExecutorService worker;
+  private final long saveWindow;
+
+  private final Set<MasterBuild> dirty = Collections.newSetFromMap(
+      new ConcurrentHashMap<MasterBuild, Boolean>());
+
+  @Inject
+  public BuildSaver(
+      ScheduledExecutorService timer,
+      ExecutorService worker,
+      @MasterProject.SaveWindow long saveWindow) {
+    this.timer = timer;
+    this.worker = worker;
+    this.saveWindow = saveWindow;
+  }
+
+  /**
+   * Marks the build dirty; it is saved at the end of the current window.
+   */
+  public void scheduleSave(final MasterBuild build) {
+    if (dirty.add(build)) {
+      timer.schedule(new Runnable() {
+        public void run() {
+          worker.execute(new Runnable() {
+            public void run() {
+              flush(build);
+            }
+          });
+        }
+      }, saveWindow, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Saves the build now if it has unsaved changes.
+   */
+  public void flush(MasterBuild build) {
+    if (dirty.remove(build)) {
+      save(build);
+    }
+  }
+
+  /**
+   * Drops unsaved changes of a build that is being deleted.
+   */
+  public void discard(MasterBuild build) {
+    dirty.remove(build);
+  }
+
+  public void flushAll() {
+    for (MasterBuild build : Lists.newArrayList(dirty)) {
+      flush(build);
+    }
+  }
+
+  private void save(MasterBuild build) {
+    try {
+      build.save();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to save " + build, e);
+    }
+  }
+}
@@ -6,132 +6,890 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.Cause;
+import hudson.model.Executor;
 import hudson.model.Hudson;
+import hudson.model.ParametersAction;
 import hudson.model.Result;
+import hudson.model.queue.QueueTaskFuture;
+import jenkins.model.CauseOfInterruption;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import javax.servlet.ServletException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public class BuildWatcher implements Runnable {
+/**
+ * Watches the sub-builds of a master build until they have all finished,
+ * retrying failed ones.
+ *
+ * The watcher is a state machine advanced by the {@link SubBuildMonitor};
+ * the master build's executor only waits for it in {@link #await()}.
+ */
+public class BuildWatcher implements SubBuildMonitor.Watch {
 
   public static interface Factory {
     BuildWatcher create(
         MasterBuild masterBuild,
-        Set<AbstractProject> projects,
-        Cause cause,
+        Set<Shard> shards,
+        Map<Shard, QueueTaskFuture<?>> futures,
+        List<Shard> pending,
         BuildListener listener);
   }
 
+  private static final Logger LOGGER =
+      Logger.getLogger(BuildWatcher.class.getName());
+
+  // Recent successful builds a hedging threshold is taken from.
+  private static final int HEDGE_HISTORY = 20;
+  private static final int MIN_HEDGE_HISTORY = 5;
+
   private final Hudson hudson;
   private final BuildFinder buildFinder;
-  private final long pingTime;
+  private final ParametersActionPropagator parametersActionPropagator;
+  private final SubBuildMonitor monitor;
+  private final RetryHistoryStore retryHistories;
+  private final BuildAvoidance buildAvoidance;
+  private final ExecutorService executor;
 
   private final MasterBuild masterBuild;
-  private final Set<AbstractProject> projects;
-  private final Cause cause;
+  private final Set<Shard> shards;
+  private final Map<Shard, QueueTaskFuture<?>> futures;
+  // Builds being scheduled on the worker executor, as scheduling takes the
+  // queue's lock; moved to futures once scheduled.
+  private final Map<Shard, Future<QueueTaskFuture<?>>> schedulings =
+      Maps.<Shard, Future<QueueTaskFuture<?>>>newHashMap();
+  // Queued sub-builds already asked to leave the queue by fail-fast.
+  private final Set<QueueTaskFuture<?>> cancelling =
+      Sets.<QueueTaskFuture<?>>newHashSet();
+  // In scheduling order; a set, as every check asks whether shards are in it.
+  private final Set<Shard> pending;
   private final BuildListener listener;
 
+  private final Map<Shard, AbstractBuild> projectBuildMap =
+      Maps.<Shard, AbstractBuild>newHashMap();
+  private final Map<Shard, Cause> causeMap =
+      Maps.<Shard, Cause>newHashMap();
+  private final Set<Shard> completed =
+      Sets.<Shard>newHashSet();
+  private final RetryPolicy retryPolicy;
+  // When each shard waiting out a retry backoff is due.
+  private final Map<Shard, Long> retryTimes =
+      Maps.<Shard, Long>newHashMap();
+  // Retry decisions being made on the worker executor.
+  private final Map<Shard, Future<Long>> retryDecisions =
+      Maps.<Shard, Future<Long>>newHashMap();
+  private final int maxInFlight;
+  private final boolean failFast;
+  // Set once a sub-build has failed for good in fail-fast mode.
+  private boolean failedFast = false;
+  private final Set<Shard> interrupted =
+      Sets.<Shard>newHashSet();
+  private final boolean hedging;
+  // Duplicates racing straggling sub-builds, and how many were started.
+  private final Map<Shard, Hedge> hedges =
+      Maps.<Shard, Hedge>newHashMap();
+  private final Map<Shard, Integer> hedgeCounts =
+      Maps.<Shard, Integer>newHashMap();
+  private final Map<Shard, Integer> hedgeNumbers =
+      Maps.<Shard, Integer>newHashMap();
+  // Worked out on the worker executor once each shard has started.
+  private final Map<Shard, Future<Long>> hedgeThresholds =
+      Maps.<Shard, Future<Long>>newHashMap();
+  private final boolean avoidBuilds;
+  private final boolean verbose;
+  private final SubProjectGraph dependencies;
+  // Shards that finished SUCCESS or UNSTABLE, for their dependents.
+  private final Set<Shard> passed =
+      Sets.<Shard>newHashSet();
+  private final Map<Shard, Long> scheduledTimes =
+      Maps.<Shard, Long>newHashMap();
+  // Reusable builds being looked for on the worker executor.
+  private final Map<Shard, Future<Reuse>> avoidanceLookups =
+      Maps.<Shard, Future<Reuse>>newHashMap();
+  // Input fingerprints of the sub-builds scheduled with build avoidance.
+  private final Map<Shard, String> fingerprints =
+      Maps.<Shard, String>newHashMap();
+  private final CountDownLatch done = new CountDownLatch(1);
+
   @Inject
   public BuildWatcher(
       @Assisted MasterBuild masterBuild,
-      @Assisted Set<AbstractProject> projects,
-      @Assisted Cause cause,
+      @Assisted Set<Shard> shards,
+      @Assisted Map<Shard, QueueTaskFuture<?>> futures,
+      @Assisted List<Shard> pending,
       @Assisted BuildListener listener,
       Hudson hudson,
       BuildFinder buildFinder,
-      @MasterProject.PingTime long pingTime) {
+      ParametersActionPropagator parametersActionPropagator,
+      SubBuildMonitor monitor,
+      RetryHistoryStore retryHistories,
+      BuildAvoidance buildAvoidance,
+      ExecutorService executor) {
     this.masterBuild = masterBuild;
-    this.projects = projects;
-    this.cause = cause;
+    this.shards = shards;
+    this.futures = Maps.<Shard, QueueTaskFuture<?>>newHashMap(futures);
+    this.pending = Sets.<Shard>newLinkedHashSet(pending);
     this.listener = listener;
+    this.retryPolicy = masterBuild.getRetryPolicy();
+    this.maxInFlight = masterBuild.getMaxInFlight();
+    this.failFast = masterBuild.getFailFast();
+    this.hedging = masterBuild.getHedging();
+    this.avoidBuilds = masterBuild.getBuildAvoidance();
+    this.verbose = masterBuild.getVerboseProgress();
+    this.dependencies = masterBuild.getDependencies();
+    for (Shard shard : shards) {
+      causeMap.put(shard, shard.newCause(masterBuild, 0));
+    }
+    long now = System.currentTimeMillis();
+    for (Shard shard : futures.keySet()) {
+      scheduledTimes.put(shard, now);
+    }
 
     this.hudson = hudson;
     this.buildFinder = buildFinder;
-    this.pingTime = pingTime;
+    this.parametersActionPropagator = parametersActionPropagator;
+    this.monitor = monitor;
+    this.retryHistories = retryHistories;
+    this.buildAvoidance = buildAvoidance;
+    this.executor = executor;
+  }
+
+  /**
+   * Blocks until every sub-build has finished.
+   */
+  public void await() throws InterruptedException {
+    done.await();
   }
 
-  public void run() {
+  public boolean check(boolean tick) {
+    if (done.getCount() == 0) {
+      return true;
+    }
     PrintStream logger = listener.getLogger();
 
-    Map<AbstractProject, AbstractBuild> projectBuildMap = 
-        Maps.<AbstractProject, AbstractBuild>newHashMap();
-    Map<AbstractProject, Cause> causeMap =
-        Maps.<AbstractProject, Cause>newHashMap();
-    Set<AbstractProject> completed = Sets.<AbstractProject>newHashSet();
-    int maxRetries = masterBuild.getMaxRetries();
-    do {
-      for (AbstractProject project : projects) {
-          AbstractBuild build = projectBuildMap.get(project);
-          if (build != null) {
-              if (build.isBuilding()) {
-                  logger.printf("......... %s (%s%s%s)\n", 
-                      project.getDisplayName(),
-                      hudson.getRootUrl(),
-                      build.getUrl(),
-                      "console");
-              } else if (!completed.contains(project)) {
-                Result result = build.getResult();
-                String page = "testReport";
-                if (result.isWorseThan(Result.UNSTABLE)) {
-                    page = "console";
-                }
-                logger.printf("[%s] %s (%s%s%s)\n", 
-                    result, 
-                    project.getDisplayName(),
+    // Progress is only printed on safety net ticks, not on every event;
+    // otherwise only state transitions are logged.
+    for (Shard shard : shards) {
+        AbstractProject project = shard.getProject();
+        AbstractBuild build = projectBuildMap.get(shard);
+        if (build != null) {
+            Hedge hedge = hedges.get(shard);
+            if (hedge != null) {
+              build = resolveHedge(shard, build, hedge, logger);
+            }
+            Cause cause = causeMap.get(shard);
+            if (build.isBuilding()) {
+              if (tick && verbose) {
+                logger.printf("......... %s (%s%s%s)\n",
+                    shard.getDisplayName(),
+                    hudson.getRootUrl(),
+                    build.getUrl(),
+                    "console");
+              }
+              if (hedging && !failedFast) {
+                maybeHedge(shard, build, cause, logger);
+              }
+            } else if (!completed.contains(shard)) {
+              Result result = build.getResult();
+              String page = "testReport";
+              if (result.isWorseThan(Result.UNSTABLE)) {
+                  page = "console";
+              }
+              // Use our own cause; the build may carry several if its
+              // queue item was merged with another master build's.
+              int rebuildNumber = getRebuildNumber(shard, cause);
+              Future<Long> decision = retryDecisions.get(shard);
+              if (decision == null) {
+                logger.printf("[%s] %s (%s%s%s)\n",
+                    result,
+                    shard.getDisplayName(),
                     hudson.getRootUrl(),
                     build.getUrl(),
                     page);
-                MasterBuildCause currentCause =
-                    (MasterBuildCause) build.getCause(MasterBuildCause.class);
-                int rebuildNumber = currentCause.getRebuildNumber();
-                if (result.isWorseThan(Result.SUCCESS)
-                    && rebuildNumber < maxRetries) {
-                  Cause newCause =
-                      new MasterBuildCause(masterBuild, rebuildNumber + 1);
-                  this.masterBuild.rebuild(project, newCause);
-                  projectBuildMap.remove(project);
-                  causeMap.put(project, newCause);
-                  logger.printf("!!!REBUILDING!!! %s (%s%s%s)\n",
-                      project.getDisplayName(),
-                      hudson.getRootUrl(),
-                      build.getUrl(),
-                      page);
+                String fingerprint = fingerprints.get(shard);
+                if (fingerprint != null && result == Result.SUCCESS) {
+                  recordInputs(fingerprint, build);
+                }
+                // Hedges take rebuild numbers but are not retries.
+                int retries = rebuildNumber - getHedgeCount(shard);
+                retryDecisions.put(
+                    shard, decideRetry(build, retries, !failedFast));
+                continue;
+              }
+              if (!decision.isDone()) {
+                continue; // Woken again once decided.
+              }
+              retryDecisions.remove(shard);
+              long delay = failedFast ? -1 : getOrNegative(decision);
+              if (delay >= 0) {
+                Cause newCause = shard.newCause(masterBuild, rebuildNumber + 1);
+                if (delay == 0) {
+                  schedulings.put(shard, reschedule(project, newCause));
                 } else {
-                  completed.add(project);
+                  retryTimes.put(
+                      shard, System.currentTimeMillis() + delay);
+                  monitor.wakeAfter(masterBuild, this, delay);
                 }
+                projectBuildMap.remove(shard);
+                causeMap.put(shard, newCause);
+                logger.printf("!!!REBUILDING!!! %s (%s%s%s)%s\n",
+                    shard.getDisplayName(),
+                    hudson.getRootUrl(),
+                    build.getUrl(),
+                    page,
+                    delay > 0 ? " in " + (delay / 1000) + "s" : "");
+              } else {
+                completed.add(shard);
+                if (!result.isWorseThan(Result.UNSTABLE)) {
+                  passed.add(shard);
+                }
+                if (failFast && !failedFast
+                    && result.isWorseOrEqualTo(Result.FAILURE)) {
+                  failedFast = true;
+                  logger.printf("Failing fast on %s\n",
+                      shard.getDisplayName());
+                }
+              }
+            }
+        } else if (!completed.contains(shard)
+            && !pending.contains(shard)) {
+            Cause cause = causeMap.get(shard);
+            Future<QueueTaskFuture<?>> scheduling = schedulings.get(shard);
+            if (scheduling != null) {
+              if (!scheduling.isDone()) {
+                continue; // Woken again once scheduled.
+              }
+              schedulings.remove(shard);
+              QueueTaskFuture<?> scheduled = getScheduled(scheduling);
+              if (scheduled == null) {
+                logger.printf("Build could not be scheduled: %s\n",
+                    shard.getDisplayName());
+              } else if (masterBuild.isStopping()) {
+                // Scheduled after the stop cancelled the others.
+                cancel(scheduled);
+              }
+              futures.put(shard, scheduled);
+            }
+            Long retryTime = retryTimes.get(shard);
+            if (retryTime != null) {
+              if (masterBuild.isStopping() || failedFast) {
+                retryTimes.remove(shard);
+                logger.printf(
+                    "[CANCELLED] %s\n", shard.getDisplayName());
+                completed.add(shard);
+                continue;
               }
-          } else {
-              Cause cause = causeMap.containsKey(project)
-                  ? causeMap.get(project) : this.cause;
-              build = buildFinder.findBuild(project, cause);
-              if (build != null) {
+              if (System.currentTimeMillis() < retryTime) {
+                continue; // Backing off.
+              }
+              retryTimes.remove(shard);
+              schedulings.put(shard, reschedule(project, cause));
+              continue;
+            }
+            QueueTaskFuture<?> future = futures.get(shard);
+            if (future == null && futures.containsKey(shard)
+                || isCancelled(future)) {
+                logger.printf(
+                    "[CANCELLED] %s\n", shard.getDisplayName());
+                completed.add(shard);
+                continue;
+            }
+            build = findStartedBuild(project, future, cause);
+            if (build != null) {
+                Long scheduledTime = scheduledTimes.get(shard);
+                if (scheduledTime != null) {
+                  masterBuild.addSubBuild(
+                      project.getFullName(),
+                      build.getNumber(),
+                      scheduledTime);
+                } else {
                   masterBuild.addSubBuild(
-                      project.getDisplayName(),
+                      project.getFullName(),
                       build.getNumber());
-                  projectBuildMap.put(project, build);
-              } else {
-                  logger.printf(
-                      "......... %s (pending)\n", 
-                      project.getDisplayName());
-              }
+                }
+                projectBuildMap.put(shard, build);
+                if (hedging && !hedgeThresholds.containsKey(shard)) {
+                  hedgeThresholds.put(shard, getHedgeThreshold(project));
+                }
+                logger.printf("[STARTED] %s (%s%s%s)\n",
+                    shard.getDisplayName(),
+                    hudson.getRootUrl(),
+                    build.getUrl(),
+                    "console");
+            } else if (tick && verbose) {
+                logger.printf(
+                    "......... %s (pending)\n",
+                    shard.getDisplayName());
+            }
+        }
+    }
+    if (failedFast) {
+      abortRemaining(logger);
+    }
+    schedulePending(logger);
+    if (tick && !verbose) {
+      printSummary(logger);
+    }
+    if (completed.containsAll(shards)) {
+      done.countDown();
+      return true;
+    }
+    return false;
+  }
+
+  private void printSummary(PrintStream logger) {
+    int running = 0;
+    int queued = 0;
+    int failed = 0;
+    for (Shard shard : shards) {
+      if (completed.contains(shard)) {
+        if (!passed.contains(shard)) {
+          failed++;
+        }
+      } else if (projectBuildMap.containsKey(shard)) {
+        running++;
+      } else if (!pending.contains(shard)) {
+        queued++;
+      }
+    }
+    logger.printf(
+        "[PROGRESS] %d running, %d queued, %d waiting, %d finished"
+            + " (%d did not pass) of %d\n",
+        running, queued, pending.size(), completed.size(), failed,
+        shards.size());
+  }
+
+  /**
+   * Schedules pending shards while fewer than the maximum number of
+   * sub-builds are in flight.
+   */
+  private void schedulePending(PrintStream logger) {
+    int inFlight = shards.size() - completed.size() - pending.size();
+    Iterator<Shard> iterator = pending.iterator();
+    while (iterator.hasNext()
+        && (maxInFlight <= 0 || inFlight < maxInFlight)) {
+      Shard shard = iterator.next();
+      AbstractProject project = shard.getProject();
+      if (masterBuild.isStopping() || failedFast) {
+        iterator.remove();
+        avoidanceLookups.remove(shard);
+        logger.printf("[CANCELLED] %s\n", shard.getDisplayName());
+        completed.add(shard);
+        continue;
+      }
+      if (dependencies != null) {
+        Boolean ready = isReady(shard);
+        if (ready == null) {
+          continue; // Waiting for its dependencies.
+        }
+        if (!ready) {
+          iterator.remove();
+          logger.printf("[SKIPPED] %s (a dependency did not pass)\n",
+              shard.getDisplayName());
+          completed.add(shard);
+          continue;
+        }
+      }
+      // A shard's inputs differ from the whole sub-project's by its index.
+      if (avoidBuilds && shard.getCount() == 1) {
+        Future<Reuse> lookup = avoidanceLookups.get(shard);
+        if (lookup == null) {
+          scheduledTimes.put(shard, System.currentTimeMillis());
+          avoidanceLookups.put(shard, findReusableBuild(shard));
+          continue;
+        }
+        if (!lookup.isDone()) {
+          continue; // Woken again once found.
+        }
+        avoidanceLookups.remove(shard);
+        iterator.remove();
+        if (reuseBuild(shard, getReuse(lookup), logger)) {
+          continue;
+        }
+      } else {
+        iterator.remove();
+        scheduledTimes.put(shard, System.currentTimeMillis());
+      }
+      schedulings.put(shard, schedule(project, causeMap.get(shard)));
+      logger.printf("Build scheduled: %s\n", shard.getDisplayName());
+      inFlight++;
+    }
+  }
+
+  /**
+   * @return whether all shards of the dependencies of {@code shard} in this
+   *     master build have passed, or {@code null} while some are still
+   *     running
+   */
+  private Boolean isReady(Shard shard) {
+    Set<String> names =
+        dependencies.getDependencies(shard.getProject().getName());
+    boolean finished = true;
+    for (Shard other : shards) {
+      if (!names.contains(other.getProject().getName())) {
+        continue;
+      }
+      if (!completed.contains(other)) {
+        finished = false;
+      } else if (!passed.contains(other)) {
+        return false;
+      }
+    }
+    return finished ? Boolean.TRUE : null;
+  }
+
+  /**
+   * Fingerprints the inputs of the shard's build and looks for an earlier
+   * successful build with the same ones, on the worker executor.
+   */
+  private Future<Reuse> findReusableBuild(final Shard shard) {
+    return offload(new Callable<Reuse>() {
+      public Reuse call() throws IOException {
+        AbstractProject project = shard.getProject();
+        String fingerprint = buildAvoidance.fingerprint(masterBuild, project);
+        if (fingerprint == null) {
+          return new Reuse(null, null);
+        }
+        return new Reuse(
+            fingerprint, buildAvoidance.find(project, fingerprint));
+      }
+    });
+  }
+
+  /**
+   * Remembers the inputs of a successful sub-build on the worker executor,
+   * as the record may have to be loaded first.
+   */
+  private void recordInputs(
+      final String fingerprint, final AbstractBuild build) {
+    executor.execute(new Runnable() {
+      public void run() {
+        buildAvoidance.record(fingerprint, build);
+      }
+    });
+  }
+
+  private static Reuse getReuse(Future<Reuse> lookup) {
+    try {
+      return lookup.get();
+    } catch (InterruptedException e) {
+      return new Reuse(null, null);
+    } catch (ExecutionException e) {
+      LOGGER.log(Level.WARNING, "Failed to look for a reusable build",
+          e.getCause());
+      return new Reuse(null, null);
+    }
+  }
+
+  /**
+   * Binds an earlier successful build of the shard's project with the same
+   * inputs instead of scheduling a new one.
+   *
+   * @return whether such a build was found
+   */
+  private boolean reuseBuild(Shard shard, Reuse reuse, PrintStream logger) {
+    if (reuse.fingerprint == null) {
+      return false;
+    }
+    fingerprints.put(shard, reuse.fingerprint);
+    AbstractBuild build = reuse.build;
+    if (build == null) {
+      return false;
+    }
+    masterBuild.addSubBuild(shard.getProject().getFullName(),
+        build.getNumber(), scheduledTimes.get(shard));
+    // It finished long ago, so no listener will complete its summary.
+    masterBuild.onSubBuildCompleted(build);
+    projectBuildMap.put(shard, build);
+    // No event will report this build; settle it on the next check.
+    monitor.wakeAfter(masterBuild, this, 0);
+    logger.printf("Build avoided: %s (%s%s)\n",
+        shard.getDisplayName(),
+        hudson.getRootUrl(),
+        build.getUrl());
+    return true;
+  }
+
+  private static final class Reuse {
+
+    private final String fingerprint;
+    private final AbstractBuild build;
+
+    private Reuse(String fingerprint, AbstractBuild build) {
+      this.fingerprint = fingerprint;
+      this.build = build;
+    }
+  }
+
+  /**
+   * Cancels queued and interrupts running sub-builds on the worker
+   * executor once the master build has failed; they are settled by later
+   * checks as they leave the queue or finish.
+   */
+  private void abortRemaining(PrintStream logger) {
+    for (Shard shard : shards) {
+      if (completed.contains(shard) || pending.contains(shard)
+          || interrupted.contains(shard) || schedulings.containsKey(shard)) {
+        // A shard being scheduled is aborted once it has been.
+        continue;
+      }
+      Hedge hedge = hedges.remove(shard);
+      if (hedge != null) {
+        abortHedge(shard, hedge);
+      }
+      AbstractBuild build = projectBuildMap.get(shard);
+      if (build == null) {
+        QueueTaskFuture<?> future = futures.get(shard);
+        if (future != null && !future.getStartCondition().isDone()
+            && cancelling.add(future)) {
+          // Only leaves the queue; a build that just started is
+          // interrupted once it has been bound.
+          cancel(future);
+        }
+        continue;
+      }
+      if (build.isBuilding()) {
+        logger.printf("[ABORTING] %s (%s%s%s)\n",
+            shard.getDisplayName(),
+            hudson.getRootUrl(),
+            build.getUrl(),
+            "console");
+        abort(build, new FailFastInterruption(masterBuild));
+      }
+      interrupted.add(shard);
+    }
+  }
+
+  /**
+   * Starts a duplicate of {@code build} once it has been running for longer
+   * than its project's hedging threshold; the first of the two to finish
+   * counts and the other is aborted.
+   */
+  private void maybeHedge(Shard shard, AbstractBuild build,
+      Cause cause, PrintStream logger) {
+    AbstractProject project = shard.getProject();
+    if (hedges.containsKey(shard) || getHedgeCount(shard) > 0
+        || !project.isConcurrentBuild()) {
+      return;
+    }
+    Future<Long> hedgeThreshold = hedgeThresholds.get(shard);
+    if (hedgeThreshold == null || !hedgeThreshold.isDone()) {
+      return;
+    }
+    long threshold = getOrNegative(hedgeThreshold);
+    long elapsed = System.currentTimeMillis() - build.getStartTimeInMillis();
+    if (threshold < 0 || elapsed <= threshold) {
+      return;
+    }
+    int rebuildNumber = getRebuildNumber(shard, cause) + 1;
+    Cause hedgeCause = shard.newCause(masterBuild, rebuildNumber);
+    hedgeCounts.put(shard, getHedgeCount(shard) + 1);
+    hedgeNumbers.put(shard, rebuildNumber);
+    hedges.put(shard, new Hedge(hedgeCause, reschedule(project, hedgeCause)));
+    logger.printf("!!!HEDGING!!! %s (%s%s%s)\n",
+        shard.getDisplayName(),
+        hudson.getRootUrl(),
+        build.getUrl(),
+        "console");
+  }
+
+  /**
+   * Settles the race between {@code build} and its hedge.
+   *
+   * @return the build that now stands for the shard
+   */
+  private AbstractBuild resolveHedge(Shard shard,
+      AbstractBuild build, Hedge hedge, PrintStream logger) {
+    AbstractProject project = shard.getProject();
+    if (hedge.build == null && hedge.scheduling.isDone()) {
+      QueueTaskFuture<?> future = getScheduled(hedge.scheduling);
+      if (future == null || isCancelled(future)) {
+        hedges.remove(shard);
+        return build;
+      }
+      hedge.build = findStartedBuild(project, future, hedge.cause);
+      if (hedge.build != null) {
+        masterBuild.addSubBuild(
+            project.getFullName(), hedge.build.getNumber());
+      }
+    }
+    if (!build.isBuilding()) {
+      hedges.remove(shard);
+      abortHedge(shard, hedge);
+      return build;
+    }
+    if (hedge.build != null && !hedge.build.isBuilding()) {
+      hedges.remove(shard);
+      abort(build, new HedgeInterruption(masterBuild));
+      projectBuildMap.put(shard, hedge.build);
+      causeMap.put(shard, hedge.cause);
+      logger.printf("[HEDGE WON] %s (%s%s%s)\n",
+          shard.getDisplayName(),
+          hudson.getRootUrl(),
+          hedge.build.getUrl(),
+          "console");
+      return hedge.build;
+    }
+    return build;
+  }
+
+  /**
+   * Cancels or interrupts the hedge of {@code shard} on the worker
+   * executor, waiting there for it to be scheduled if it is still being.
+   */
+  private void abortHedge(final Shard shard, final Hedge hedge) {
+    final AbstractBuild bound = hedge.build;
+    offload(new Callable<Void>() {
+      public Void call() throws Exception {
+        AbstractBuild build = bound;
+        if (build == null) {
+          QueueTaskFuture<?> future = hedge.scheduling.get();
+          if (future == null) {
+            return null;
+          }
+          if (!future.getStartCondition().isDone()) {
+            future.cancel(false);
+            return null;
           }
+          build = findStartedBuild(shard.getProject(), future, hedge.cause);
+        }
+        if (build != null) {
+          interrupt(build, new HedgeInterruption(masterBuild));
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Interrupts {@code build} on the worker executor, as that takes the
+   * locks of its executor and run.
+   */
+  private void abort(
+      final AbstractBuild build, final CauseOfInterruption cause) {
+    offload(new Callable<Void>() {
+      public Void call() {
+        interrupt(build, cause);
+        return null;
+      }
+    });
+  }
+
+  private static void interrupt(
+      AbstractBuild build, CauseOfInterruption cause) {
+    Executor executor = build.getExecutor();
+    if (executor != null) {
+      executor.interrupt(Result.ABORTED, cause);
+    }
+  }
+
+  /**
+   * Takes a queued sub-build out of the queue on the worker executor.
+   */
+  private void cancel(final QueueTaskFuture<?> future) {
+    offload(new Callable<Void>() {
+      public Void call() {
+        future.cancel(false);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Schedules the first build of a shard on the worker executor, as
+   * scheduling takes the queue's lock.
+   */
+  private Future<QueueTaskFuture<?>> schedule(
+      final AbstractProject project, final Cause cause) {
+    return offload(new Callable<QueueTaskFuture<?>>() {
+      public QueueTaskFuture<?> call() {
+        ParametersAction[] parametersActions =
+            parametersActionPropagator
+                .getPropagatedActions(masterBuild, project, cause);
+        QueueTaskFuture<?> future =
+            project.scheduleBuild2(0, cause, parametersActions);
+        if (future != null) {
+          masterBuild.addFuture(future);
+        }
+        return future;
+      }
+    });
+  }
+
+  /**
+   * Schedules a retry or hedge of a shard on the worker executor.
+   */
+  private Future<QueueTaskFuture<?>> reschedule(
+      final AbstractProject project, final Cause cause) {
+    return offload(new Callable<QueueTaskFuture<?>>() {
+      public QueueTaskFuture<?> call() {
+        return masterBuild.reschedule(project, cause);
       }
-      rest();
-    } while (!completed.containsAll(projects));
+    });
   }
 
-  private void rest() {
+  /**
+   * @return the queue future of a finished scheduling, or {@code null} if
+   *     the build could not be scheduled
+   */
+  private static QueueTaskFuture<?> getScheduled(
+      Future<QueueTaskFuture<?>> scheduling) {
     try {
-      Thread.sleep(pingTime);
-    } catch (InterruptedException ignore) {}
+      return scheduling.get();
+    } catch (InterruptedException e) {
+      return null;
+    } catch (ExecutionException e) {
+      LOGGER.log(Level.WARNING, "Failed to schedule a sub-build",
+          e.getCause());
+      return null;
+    }
   }
-}
 
+  /**
+   * Loads the project's recent successful builds on the worker executor.
+   *
+   * @return the 95th percentile of their durations, or -1 if there are too
+   *     few to tell
+   */
+  private Future<Long> getHedgeThreshold(final AbstractProject project) {
+    return offload(new Callable<Long>() {
+      public Long call() {
+        List<AbstractBuild> history = project.getLastBuildsOverThreshold(
+            HEDGE_HISTORY, Result.UNSTABLE);
+        if (history.size() < MIN_HEDGE_HISTORY) {
+          return -1L;
+        }
+        long[] durations = new long[history.size()];
+        for (int i = 0; i < durations.length; i++) {
+          durations[i] = history.get(i).getDuration();
+        }
+        Arrays.sort(durations);
+        int index = (int) Math.ceil(durations.length * 0.95) - 1;
+        return durations[index];
+      }
+    });
+  }
+
+  /**
+   * Records the outcome of a retry and asks the retry policy about
+   * {@code build} on the worker executor, as both may read files.
+   *
+   * @return the retry delay, or a negative number not to retry
+   */
+  private Future<Long> decideRetry(final AbstractBuild build,
+      final int retries, final boolean askPolicy) {
+    final AbstractProject project = build.getProject();
+    return offload(new Callable<Long>() {
+      public Long call() {
+        Result result = build.getResult();
+        if (retries > 0) {
+          retryHistories.record(
+              project, !result.isWorseThan(Result.SUCCESS));
+        }
+        return !askPolicy ? -1 : retryPolicy.getRetryDelay(
+            build, retries, retryHistories.get(project));
+      }
+    });
+  }
+
+  /**
+   * @return the value of a finished worker task, or -1 if it failed
+   */
+  private static long getOrNegative(Future<Long> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      return -1;
+    } catch (ExecutionException e) {
+      LOGGER.log(Level.WARNING, "Worker task failed", e.getCause());
+      return -1;
+    }
+  }
+
+  /**
+   * Runs {@code task} on the worker executor and checks this watcher again
+   * once it is done. Checks run on the monitor's timer thread, which every
+   * master build shares, so anything that may block goes through here.
+   */
+  private <T> Future<T> offload(Callable<T> task) {
+    FutureTask<T> future = new FutureTask<T>(task) {
+      @Override
+      protected void done() {
+        monitor.wakeAfter(masterBuild, BuildWatcher.this, 0);
+      }
+    };
+    executor.execute(future);
+    return future;
+  }
+
+  private int getRebuildNumber(Shard shard, Cause cause) {
+    // A losing hedge may have taken a later number than the current cause.
+    int rebuildNumber = ((MasterBuildCause) cause).getRebuildNumber();
+    Integer hedgeNumber = hedgeNumbers.get(shard);
+    return hedgeNumber != null
+        ? Math.max(rebuildNumber, hedgeNumber) : rebuildNumber;
+  }
+
+  private int getHedgeCount(Shard shard) {
+    Integer count = hedgeCounts.get(shard);
+    return count != null ? count : 0;
+  }
+
+  private static final class Hedge {
+
+    private final Cause cause;
+    private final Future<QueueTaskFuture<?>> scheduling;
+    private AbstractBuild build;
+
+    private Hedge(Cause cause, Future<QueueTaskFuture<?>> scheduling) {
+      this.cause = cause;
+      this.scheduling = scheduling;
+    }
+  }
+
+  private static boolean isCancelled(QueueTaskFuture<?> future) {
+    return future != null
+        && (future.isCancelled() || future.getStartCondition().isCancelled());
+  }
+
+  /**
+   * Resolves the build of {@code project} from its queue future's start
+   * condition, falling back to the sub-build index when we have no future.
+   */
+  private AbstractBuild findStartedBuild(
+      AbstractProject project, QueueTaskFuture<?> future, Cause cause) {
+    if (future == null) {
+      return buildFinder.findBuild(project, cause);
+    }
+    Future<?> startCondition = future.getStartCondition();
+    if (!startCondition.isDone()) {
+      return null;
+    }
+    try {
+      return (AbstractBuild) startCondition.get();
+    } catch (InterruptedException e) {
+      return null;
+    } catch (ExecutionException e) {
+      return null;
+    } catch (CancellationException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.etsy.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import hudson.scm.ChangeLogSet;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import net.sf.json.JSONObject;
+
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+
+/**
+ * Builds only the sub-projects affected by the paths changed in the master
+ * build's changeset, according to a table of {@link PathRules}.
+ *
+ * All sub-projects are built when the changeset is empty or a changed path
+ * matches no rule, and when sub-projects were named explicitly.
+ */
+public class ChangedPathsJobProperty extends JobProperty<MasterProject> {
+
+  private final String pathRules;
+
+  private transient PathRules compiledRules;
+
+  @DataBoundConstructor
+  public ChangedPathsJobProperty(String pathRules) {
+    this.pathRules = pathRules;
+  }
+
+  @Override
+  public boolean prebuild(AbstractBuild build, BuildListener listener) {
+    SubProjectsAction action = build.getAction(SubProjectsAction.class);
+    if (action != null && action.getSubProjectNames() != null
+        && !action.getSubProjectNames().isEmpty()) {
+      return true;
+    }
+    Set<String> affected = Sets.<String>newHashSet();
+    ChangeLogSet<? extends ChangeLogSet.Entry> changeSet =
+        build.getChangeSet();
+    if (changeSet.isEmptySet()) {
+      listener.getLogger().println(
+          "No changes found; building all sub-projects");
+      return true;
+    }
+    PathRules rules = getCompiledRules();
+    for (ChangeLogSet.Entry entry : changeSet) {
+      for (String path : entry.getAffectedPaths()) {
+        if (!rules.match(path, affected)) {
+          listener.getLogger().printf(
+              "No sub-projects mapped to %s; building all sub-projects\n",
+              path);
+          return true;
+        }
+      }
+    }
+    ((MasterBuild) build).setAffectedSubProjects(affected);
+    return true;
+  }
+
+  public String getPathRules() {
+    return this.pathRules;
+  }
+
+  private synchronized PathRules getCompiledRules() {
+    if (compiledRules == null) {
+      compiledRules = new PathRules(pathRules == null ? "" : pathRules);
+    }
+    return compiledRules;
+  }
+
+  @Override
+  public JobPropertyDescriptor getDescriptor() {
+    return DESCRIPTOR;
+  }
+
+  @Extension
+  public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+  public static class DescriptorImpl extends JobPropertyDescriptor {
+
+    @Override
+    public String getDisplayName() {
+      return "Build Sub-Projects Affected by Changed Paths";
+    }
+
+    @Override
+    public boolean isApplicable(Class<? extends Job> jobType) {
+        return jobType.equals(MasterProject.class);
+    }
+
+    @Override
+    public JobProperty<?> newInstance(
+        StaplerRequest req,
+        JSONObject formData)
+        throws Descriptor.FormException {
+      JSONObject property = formData.optJSONObject("changedPathsJobProperty");
+      if (property == null) {
+        return null;
+      }
+      String pathRules = property.getString("pathRules");
+      try {
+        new PathRules(pathRules);
+      } catch (IllegalArgumentException e) {
+        throw new Descriptor.FormException(e.getMessage(), "pathRules");
+      }
+      return new ChangedPathsJobProperty(pathRules);
+    }
+  }
+}
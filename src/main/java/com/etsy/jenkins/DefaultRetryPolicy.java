@@ -0,0 +1,148 @@
+package com.etsy.jenkins;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Retries sub-builds that finished worse than SUCCESS, up to a limit, with
+ * optional conditions on the result, the log and the sub-project's
+ * flakiness, and with exponential backoff.
+ */
+public class DefaultRetryPolicy implements RetryPolicy {
+
+  private static final Logger LOGGER =
+      Logger.getLogger(DefaultRetryPolicy.class.getName());
+
+  private static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(30);
+
+  private final int maxRetries;
+  private final Map<String, Integer> projectLimits;
+  private final Set<Result> retryOn;
+  private final Pattern logPattern;
+  private final long backoff;
+  private final double minFlakiness;
+  private final Random random = new Random();
+
+  public DefaultRetryPolicy(int maxRetries) {
+    this(maxRetries, Collections.<String, Integer>emptyMap(),
+        Collections.<Result>emptySet(), null, 0, 0);
+  }
+
+  /**
+   * @param maxRetries the number of retries of a sub-project without a
+   *     limit of its own
+   * @param projectLimits retry limits by sub-project name
+   * @param retryOn the results to retry; empty for any worse than SUCCESS
+   * @param logPattern a pattern the log must contain for a retry, or
+   *     {@code null}
+   * @param backoff the delay before the first retry in milliseconds,
+   *     doubled for each further retry
+   * @param minFlakiness the flakiness a sub-project needs to be retried,
+   *     from 0 to 1; below it, one retry in
+   *     {@link RetryHistory#PROBE_INTERVAL} is still let through
+   */
+  public DefaultRetryPolicy(
+      int maxRetries,
+      Map<String, Integer> projectLimits,
+      Set<Result> retryOn,
+      Pattern logPattern,
+      long backoff,
+      double minFlakiness) {
+    this.maxRetries = maxRetries;
+    this.projectLimits = projectLimits;
+    this.retryOn = retryOn;
+    this.logPattern = logPattern;
+    this.backoff = backoff;
+    this.minFlakiness = minFlakiness;
+  }
+
+  public long getRetryDelay(
+      AbstractBuild build, int retries, RetryHistory history) {
+    AbstractProject project = build.getProject();
+    if (!isRetryable(build.getResult(), project.getFullName(),
+        project.getName(), retries)) {
+      return -1;
+    }
+    if (logPattern != null && !logMatches(build)) {
+      return -1;
+    }
+    // Checked last, as a refusal here counts towards the next probe.
+    if (!isFlakyEnough(history)) {
+      return -1;
+    }
+    return getBackoff(retries);
+  }
+
+  /**
+   * @return whether a sub-build of the named sub-project that finished
+   *     with {@code result} may be retried, before looking at its log and
+   *     flakiness
+   */
+  /*package*/ boolean isRetryable(
+      Result result, String fullName, String name, int retries) {
+    if (result == null || !result.isWorseThan(Result.SUCCESS)) {
+      return false;
+    }
+    if (retries >= getLimit(fullName, name)) {
+      return false;
+    }
+    return retryOn.isEmpty() || retryOn.contains(result);
+  }
+
+  /*package*/ boolean isFlakyEnough(RetryHistory history) {
+    return minFlakiness <= 0
+        || history.getFlakiness() >= minFlakiness
+        || history.probe();
+  }
+
+  private int getLimit(String fullName, String name) {
+    Integer limit = projectLimits.get(fullName);
+    if (limit == null) {
+      limit = projectLimits.get(name);
+    }
+    return limit != null ? limit : maxRetries;
+  }
+
+  /*package*/ long getBackoff(int retries) {
+    if (backoff <= 0) {
+      return 0;
+    }
+    long delay = Math.min(backoff << Math.min(retries, 20), MAX_BACKOFF);
+    // Keep half the delay and randomize the rest, so that sub-builds that
+    // failed together are not retried together.
+    long half = delay / 2;
+    return half + (long) (random.nextDouble() * (delay - half));
+  }
+
+  private boolean logMatches(AbstractBuild build) {
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(build.getLogReader());
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (logPattern.matcher(line).find()) {
+          return true;
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to read the log of " + build, e);
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,34 @@
+package com.etsy.jenkins;
+
+import hudson.model.Run;
+import jenkins.model.CauseOfInterruption;
+
+/**
+ * Records that a sub-build was aborted because another sub-build of the same
+ * master build had already failed.
+ */
+public class FailFastInterruption extends CauseOfInterruption {
+
+  private final String upstreamProject;
+  private final int upstreamBuild;
+
+  public FailFastInterruption(Run<?,?> master) {
+    this.upstreamProject = master.getParent().getFullName();
+    this.upstreamBuild = master.getNumber();
+  }
+
+  public String getUpstreamProject() {
+    return upstreamProject;
+  }
+
+  public int getUpstreamBuild() {
+    return upstreamBuild;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return String.format(
+        "Aborted because another sub-build of %s #%d failed",
+        upstreamProject, upstreamBuild);
+  }
+}
@@ -0,0 +1,61 @@
+package com.etsy.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Aborts the remaining sub-builds as soon as one has failed for good.
+ */
+public class FailFastJobProperty extends JobProperty<MasterProject> {
+
+  @DataBoundConstructor
+  public FailFastJobProperty() {}
+
+  @Override
+  public boolean prebuild(AbstractBuild build, BuildListener listener) {
+    ((MasterBuild) build).setFailFast(true);
+    return true;
+  }
+
+  @Override
+  public JobPropertyDescriptor getDescriptor() {
+    return DESCRIPTOR;
+  }
+
+  @Extension
+  public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+  public static class DescriptorImpl extends JobPropertyDescriptor {
+
+    @Override
+    public String getDisplayName() {
+      return "Abort Sub-Builds on First Failure";
+    }
+
+    @Override
+    public boolean isApplicable(Class<? extends Job> jobType) {
+        return jobType.equals(MasterProject.class);
+    }
+
+    @Override
+    public JobProperty<?> newInstance(
+        StaplerRequest req,
+        JSONObject formData)
+        throws Descriptor.FormException {
+      JSONObject property = formData.optJSONObject("failFastJobProperty");
+      if (property == null) {
+        return null;
+      }
+      return new FailFastJobProperty();
+    }
+  }
+}
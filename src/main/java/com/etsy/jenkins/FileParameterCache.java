@@ -0,0 +1,170 @@
+package com.etsy.jenkins;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Places propagated file parameters without copying them around.
+ *
+ * A sub-build's own record of the file is a hard link to the master
+ * build's copy. Agents keep one copy of each file, named by its MD5
+ * digest, which is transferred compressed the first time a sub-build on
+ * that agent needs it. The copy is checked against the digest on the agent
+ * as it arrives and again before each reuse, so a damaged or replaced
+ * entry is transferred anew.
+ * Workspaces get a copy local to their machine, since builds may change
+ * the file.
+ */
+/*package*/ final class FileParameterCache {
+
+  private static final String CACHE_DIR = "fileParameterCache";
+  // Cached files not used for this long are deleted.
+  private static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+
+  private FileParameterCache() {}
+
+  /**
+   * Places {@code source}, whose digest is {@code digest}, at
+   * {@code record} under the sub-build and at {@code target} in its
+   * workspace, caching it under {@code nodeRoot} if that is remote.
+   */
+  public static void place(
+      File source,
+      String digest,
+      File record,
+      FilePath target,
+      FilePath nodeRoot,
+      TaskListener listener) throws IOException, InterruptedException {
+    linkOrCopy(source, record);
+    if (!target.isRemote()) {
+      copy(source, new File(target.getRemote()));
+      return;
+    }
+    FilePath cache = nodeRoot.child(CACHE_DIR);
+    FilePath cached = cache.child(digest);
+    // Hashed on the agent; only the digest comes back.
+    if (!cached.exists() || !digest.equals(cached.digest())) {
+      listener.getLogger().println(
+          "Transferring " + source.getName() + " to the agent's cache");
+      transfer(source, digest, cache);
+    }
+    cached.touch(System.currentTimeMillis());
+    cached.act(new CopyTo(target.getRemote()));
+  }
+
+  private static void transfer(File source, String digest, FilePath cache)
+      throws IOException, InterruptedException {
+    cache.mkdirs();
+    prune(cache);
+    FilePath staging = cache.createTempDir(digest, ".partial");
+    try {
+      // Sent as a gzipped tar stream. The file is named rather than
+      // matched, as its name may not be a safe file pattern.
+      new FilePath(source.getParentFile()).copyRecursiveTo(
+          new SingleFile(source.getName()), staging, source.getName());
+      FilePath received = staging.child(source.getName());
+      String receivedDigest = received.digest();
+      if (!digest.equals(receivedDigest)) {
+        throw new IOException(String.format(
+            "%s was corrupted in transfer: expected %s, got %s",
+            source.getName(), digest, receivedDigest));
+      }
+      received.renameTo(cache.child(digest));
+    } finally {
+      staging.deleteRecursive();
+    }
+  }
+
+  private static void prune(FilePath cache)
+      throws IOException, InterruptedException {
+    long cutoff = System.currentTimeMillis() - MAX_AGE;
+    for (FilePath child : cache.list()) {
+      if (child.lastModified() < cutoff) {
+        child.deleteRecursive();
+      }
+    }
+  }
+
+  /**
+   * Hard links {@code target} to {@code source}, or copies it where links
+   * are not supported.
+   */
+  private static void linkOrCopy(File source, File target)
+      throws IOException {
+    target.getParentFile().mkdirs();
+    if (target.exists() && !target.delete()) {
+      throw new IOException("Could not replace " + target);
+    }
+    if (!link(source, target)) {
+      copy(source, target);
+    }
+  }
+
+  private static boolean link(File source, File target) {
+    try {
+      // Looked up reflectively so the plugin still runs on Java 6.
+      Class<?> files = Class.forName("java.nio.file.Files");
+      Class<?> path = Class.forName("java.nio.file.Path");
+      Method toPath = File.class.getMethod("toPath");
+      files.getMethod("createLink", path, path)
+          .invoke(null, toPath.invoke(target), toPath.invoke(source));
+      return true;
+    } catch (Exception e) {
+      return false; // E.g. another file system, or no links there.
+    }
+  }
+
+  private static void copy(File source, File target) throws IOException {
+    target.getParentFile().mkdirs();
+    Util.copyFile(source, target);
+  }
+
+  /**
+   * Scans a single file by name.
+   */
+  private static final class SingleFile extends DirScanner {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+
+    private SingleFile(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void scan(File dir, FileVisitor visitor) throws IOException {
+      visitor.visit(new File(dir, name), name);
+    }
+  }
+
+  /**
+   * Copies the cached file to the workspace, on the agent.
+   */
+  private static final class CopyTo extends MasterToSlaveFileCallable<Void> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String target;
+
+    private CopyTo(String target) {
+      this.target = target;
+    }
+
+    public Void invoke(File cached, VirtualChannel channel)
+        throws IOException {
+      copy(cached, new File(target));
+      return null;
+    }
+  }
+}
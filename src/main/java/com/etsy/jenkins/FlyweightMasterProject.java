@@ -0,0 +1,48 @@
+package com.etsy.jenkins;
+
+import hudson.Extension;
+import hudson.model.ItemGroup;
+import hudson.model.Queue;
+import hudson.model.TopLevelItemDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * A master project whose builds, like a matrix parent's, run as a
+ * {@link Queue.FlyweightTask} on a one-off executor and leave the real
+ * executor slots to their sub-builds.
+ *
+ * The queue decides this by the task's type, so it is a project type of
+ * its own rather than an option. Its publishers run on the one-off
+ * executor of whichever node it lands on, so it suits projects whose
+ * publishers only notify.
+ */
+public class FlyweightMasterProject extends MasterProject
+implements Queue.FlyweightTask {
+
+  @DataBoundConstructor
+  public FlyweightMasterProject(
+      ItemGroup parent,
+      String name) {
+    super(parent, name);
+  }
+
+  @Override
+  public TopLevelItemDescriptor getDescriptor() {
+    return DESCRIPTOR;
+  }
+
+  @Extension
+  public static final TopLevelItemDescriptor DESCRIPTOR =
+      new TopLevelItemDescriptor() {
+
+    @Override
+    public String getDisplayName() {
+      return "Master Project (flyweight)";
+    }
+
+    public FlyweightMasterProject newInstance(ItemGroup group, String name) {
+      return new FlyweightMasterProject(group, name);
+    }
+  };
+}
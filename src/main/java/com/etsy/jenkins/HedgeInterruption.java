@@ -0,0 +1,34 @@
+package com.etsy.jenkins;
+
+import hudson.model.Run;
+import jenkins.model.CauseOfInterruption;
+
+/**
+ * Records that a sub-build was aborted because a duplicate of it, started
+ * to hedge against a straggler, finished first.
+ */
+public class HedgeInterruption extends CauseOfInterruption {
+
+  private final String upstreamProject;
+  private final int upstreamBuild;
+
+  public HedgeInterruption(Run<?,?> master) {
+    this.upstreamProject = master.getParent().getFullName();
+    this.upstreamBuild = master.getNumber();
+  }
+
+  public String getUpstreamProject() {
+    return upstreamProject;
+  }
+
+  public int getUpstreamBuild() {
+    return upstreamBuild;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return String.format(
+        "Aborted because a duplicate started by %s #%d finished first",
+        upstreamProject, upstreamBuild);
+  }
+}
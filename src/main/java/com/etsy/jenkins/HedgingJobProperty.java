@@ -0,0 +1,63 @@
+package com.etsy.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Starts a duplicate of a sub-build that runs longer than the 95th
+ * percentile of its recent successful builds; the first of the two to
+ * finish counts. Only applies to sub-projects that allow concurrent builds.
+ */
+public class HedgingJobProperty extends JobProperty<MasterProject> {
+
+  @DataBoundConstructor
+  public HedgingJobProperty() {}
+
+  @Override
+  public boolean prebuild(AbstractBuild build, BuildListener listener) {
+    ((MasterBuild) build).setHedging(true);
+    return true;
+  }
+
+  @Override
+  public JobPropertyDescriptor getDescriptor() {
+    return DESCRIPTOR;
+  }
+
+  @Extension
+  public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+  public static class DescriptorImpl extends JobPropertyDescriptor {
+
+    @Override
+    public String getDisplayName() {
+      return "Hedge Straggling Sub-Builds";
+    }
+
+    @Override
+    public boolean isApplicable(Class<? extends Job> jobType) {
+        return jobType.equals(MasterProject.class);
+    }
+
+    @Override
+    public JobProperty<?> newInstance(
+        StaplerRequest req,
+        JSONObject formData)
+        throws Descriptor.FormException {
+      JSONObject property = formData.optJSONObject("hedgingJobProperty");
+      if (property == null) {
+        return null;
+      }
+      return new HedgingJobProperty();
+    }
+  }
+}
@@ -7,10 +7,12 @@ import hudson.model.AbstractProject;
 import hudson.model.Build;
 import hudson.model.Cause;
 import hudson.model.Result;
+import hudson.model.queue.QueueTaskFuture;
 import hudson.security.Permission;
 
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -19,10 +21,14 @@ import com.google.inject.Provider;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import org.kohsuke.stapler.HttpResponse;
 
 public class MasterBuild extends Build<MasterProject, MasterBuild> {
@@ -30,6 +36,10 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
   @Inject static Provider<MasterResult> masterResultProvider;
   @Inject static MasterRebuilder rebuilder;
   @Inject static ProjectFinder projectFinder;
+  @Inject static BuildSaver buildSaver;
+
+  // How long a viewer waits for sub-build changes before polling again.
+  private static final long LONG_POLL_TIMEOUT = 25000L;
 
   private MasterResult masterResult;
   private Set<String> subProjects;
@@ -37,9 +47,23 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
 
   private int maxRetries;
   private boolean notifyOnRebuild;
-
-  private transient List<Future<AbstractBuild>> futuresToAbort =
-      Lists.<Future<AbstractBuild>>newArrayList();
+  private boolean longestFirst;
+  private int maxInFlight;
+  private boolean failFast;
+  private boolean hedging;
+  private boolean buildAvoidance;
+  private boolean verboseProgress;
+
+  // Added to by the watcher while doStop() may be iterating.
+  private transient List<Future<?>> futuresToAbort =
+      new CopyOnWriteArrayList<Future<?>>();
+  private transient volatile boolean stopping;
+  private transient RetryPolicy retryPolicy;
+  private transient Set<String> affectedSubProjects;
+  private transient SubProjectGraph dependencies;
+  private transient Map<String, Integer> shardCounts;
+  private transient StatusFeed statusFeed;
+  private transient PropagationPlan propagationPlan;
 
   public MasterBuild(MasterProject project) throws IOException {
     super(project);
@@ -48,6 +72,12 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
     this.hiddenSubProjects = Sets.<String>newHashSet();
     this.maxRetries = 0;
     this.notifyOnRebuild = false;
+    this.longestFirst = false;
+    this.maxInFlight = 0;
+    this.failFast = false;
+    this.hedging = false;
+    this.buildAvoidance = false;
+    this.verboseProgress = false;
   }
 
   public MasterBuild(MasterProject project, File file) throws IOException {
@@ -62,6 +92,55 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
     this.subProjects = subProjects;
   }
 
+  /**
+   * @return the dependencies between sub-projects, or {@code null} if they
+   *     are independent
+   */
+  public SubProjectGraph getDependencies() {
+    return this.dependencies;
+  }
+
+  /*package*/ void setDependencies(SubProjectGraph dependencies) {
+    this.dependencies = dependencies;
+  }
+
+  /**
+   * @return the number of shards {@code project} is built as
+   */
+  public int getShardCount(AbstractProject project) {
+    Integer count =
+        shardCounts == null ? null : shardCounts.get(project.getName());
+    return count == null ? 1 : count;
+  }
+
+  /*package*/ void setShardCounts(Map<String, Integer> shardCounts) {
+    this.shardCounts = shardCounts;
+  }
+
+  /**
+   * Limits the sub-projects to build to those affected by this build's
+   * changes, as found by {@link ChangedPathsJobProperty}.
+   */
+  /*package*/ void setAffectedSubProjects(Set<String> affectedSubProjects) {
+    this.affectedSubProjects = affectedSubProjects;
+  }
+
+  /**
+   * Drops the sub-projects not affected by this build's changes.
+   *
+   * @return the number of sub-projects dropped
+   */
+  /*package*/ int retainAffectedSubProjects() {
+    if (this.affectedSubProjects == null) {
+      return 0;
+    }
+    int before = this.subProjects.size();
+    Set<String> retained = Sets.<String>newHashSet(this.subProjects);
+    retained.retainAll(this.affectedSubProjects);
+    this.subProjects = retained;
+    return before - retained.size();
+  }
+
   public Set<AbstractProject> getHiddenSubProjects() {
     return getProjectsByNames(this.hiddenSubProjects);
   }
@@ -78,6 +157,21 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
     this.maxRetries = maxRetries;
   }
 
+  /**
+   * @return the policy failed sub-builds are retried by; without one set,
+   *     they are retried right away up to {@link #getMaxRetries()} times
+   */
+  public RetryPolicy getRetryPolicy() {
+    if (this.retryPolicy == null) {
+      return new DefaultRetryPolicy(this.maxRetries);
+    }
+    return this.retryPolicy;
+  }
+
+  /*package*/ void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
   public boolean getNotifyOnRebuild() {
     return this.notifyOnRebuild;
   }
@@ -86,16 +180,65 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
     this.notifyOnRebuild = notifyOnRebuild;
   }
 
-  private Set<AbstractProject> getProjectsByNames(Set<String> subProjects) {
-    Set<AbstractProject> projects = Sets.<AbstractProject>newHashSet();
+  public boolean getLongestFirst() {
+    return this.longestFirst;
+  }
 
-    for (String subProject : subProjects) {
-      AbstractProject project = projectFinder.findProject(subProject);
-      if (project != null) {
-        projects.add(project);
-      }
-    }
-    return projects;
+  /*package*/ void setLongestFirst(boolean longestFirst) {
+    this.longestFirst = longestFirst;
+  }
+
+  /**
+   * @return the maximum number of sub-builds scheduled at once, or 0 for
+   *     no limit
+   */
+  public int getMaxInFlight() {
+    return this.maxInFlight;
+  }
+
+  /*package*/ void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  public boolean getFailFast() {
+    return this.failFast;
+  }
+
+  /*package*/ void setFailFast(boolean failFast) {
+    this.failFast = failFast;
+  }
+
+  public boolean getHedging() {
+    return this.hedging;
+  }
+
+  /*package*/ void setHedging(boolean hedging) {
+    this.hedging = hedging;
+  }
+
+  public boolean getBuildAvoidance() {
+    return this.buildAvoidance;
+  }
+
+  /*package*/ void setBuildAvoidance(boolean buildAvoidance) {
+    this.buildAvoidance = buildAvoidance;
+  }
+
+  /**
+   * @return whether the console shows every unfinished sub-build on each
+   *     progress tick rather than a one-line summary
+   */
+  public boolean getVerboseProgress() {
+    return this.verboseProgress;
+  }
+
+  /*package*/ void setVerboseProgress(boolean verboseProgress) {
+    this.verboseProgress = verboseProgress;
+  }
+
+  private Set<AbstractProject> getProjectsByNames(Set<String> subProjects) {
+    return Sets.<AbstractProject>newHashSet(
+        projectFinder.findProjects(subProjects).values());
   }
 
 
@@ -107,7 +250,9 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
   @Override
   public Result getResult() {
     Result result = this.masterResult.getOverallResult();
-    setResult(result);
+    if (result != super.result) {
+      setResult(result);
+    }
     return result;
   }
 
@@ -120,21 +265,171 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
     return this.masterResult.isBuilding();
   }
 
-  /*package*/ void addSubBuild(String projectName, int buildNumber) {
+  /*package*/ synchronized void addSubBuild(
+      String projectName, int buildNumber) {
+    // Synchronized with save() so the result is not changed mid-write.
     masterResult.addBuild(projectName, buildNumber);
+    persist();
+    getStatusFeed().publish(projectName);
+  }
 
-    for (int i = 0; i < 5; i++) {
-      try {
-        this.save();
-        return;
-      } catch (IOException retry) {}
+  /**
+   * Adds a sub-build that was scheduled at {@code scheduledTime}.
+   */
+  /*package*/ synchronized void addSubBuild(
+      String projectName, int buildNumber, long scheduledTime) {
+    masterResult.addBuild(projectName, buildNumber);
+    masterResult.getResult(projectName).setScheduledTime(scheduledTime);
+    persist();
+    getStatusFeed().publish(projectName);
+  }
+
+  /**
+   * Called when a sub-build of this master build has finished.
+   */
+  /*package*/ synchronized void onSubBuildCompleted(AbstractBuild build) {
+    String projectName = build.getProject().getFullName();
+    if (!masterResult.onBuildCompleted(projectName, build)) {
+      return; // A hidden sub-build.
+    }
+    getStatusFeed().publish(projectName);
+    if (!super.isBuilding()) {
+      // A rebuild finished after this build; record its effect on the result.
+      getResult();
+      persist();
     }
   }
 
+  /**
+   * Called when a sub-build of this master build has left the queue to
+   * start, after waiting {@code queueWait} milliseconds.
+   */
+  /*package*/ synchronized void onSubBuildLeftQueue(
+      AbstractBuild build, long queueWait) {
+    masterResult.onBuildLeftQueue(
+        build.getProject().getFullName(), build.getNumber(), queueWait);
+  }
+
+  /**
+   * @return the sub-projects' results with a summary of each build, as
+   *     recorded when the builds finished
+   */
+  @Exported(visibility=3)
+  public Collection<SubResult> getSubResults() {
+    return masterResult.getSubResults();
+  }
+
+  private void persist() {
+    buildSaver.scheduleSave(this);
+  }
+
+  /**
+   * Writes out any changes still waiting in the save window.
+   */
+  /*package*/ void flush() {
+    buildSaver.flush(this);
+  }
+
   public List<AbstractBuild> getLatestBuilds() {
     return masterResult.getLatestBuilds();
   }
 
+  /*package*/ synchronized PropagationPlan getPropagationPlan() {
+    if (propagationPlan == null) {
+      propagationPlan = new PropagationPlan(this);
+    }
+    return propagationPlan;
+  }
+
+  /*package*/ synchronized StatusFeed getStatusFeed() {
+    if (statusFeed == null) {
+      statusFeed = new StatusFeed();
+    }
+    return statusFeed;
+  }
+
+  /**
+   * @return the version of the sub-build state shown by the page
+   */
+  public long getStatusVersion() {
+    return getStatusFeed().getVersion();
+  }
+
+  /**
+   * @return the key of the row showing {@code build} in the latest builds
+   */
+  public String getRowKey(AbstractBuild build) {
+    String projectName = build.getProject().getFullName();
+    MasterBuildCause cause =
+        (MasterBuildCause) build.getCause(MasterBuildCause.class);
+    if (cause == null || cause.getShardCount() <= 1) {
+      return projectName;
+    }
+    return projectName + "#" + cause.getShardIndex();
+  }
+
+  /**
+   * @return the latest builds of the sub-projects that changed after the
+   *     {@code since} version
+   */
+  public List<AbstractBuild> getLatestBuildsSince(long since) {
+    List<AbstractBuild> builds = Lists.<AbstractBuild>newArrayList();
+    for (String projectName : getStatusFeed().getChangedSince(
+        since, masterResult.getProjectNames())) {
+      SubResult subResult = masterResult.getResult(projectName);
+      if (subResult == null) {
+        continue;
+      }
+      for (AbstractBuild build : subResult.getLatestBuilds()) {
+        if (build != null) {
+          builds.add(build);
+        }
+      }
+    }
+    return builds;
+  }
+
+  /**
+   * Long-polls for changes to the sub-builds: responds with the rows of the
+   * sub-projects that changed after the {@code since} version as soon as
+   * there are any, or with no rows after a timeout. The version the rows
+   * are current to is sent in the {@code X-Status-Version} header. Once
+   * nothing is building any more, responds right away and sets the
+   * {@code X-Status-Done} header, so that pages stop polling.
+   */
+  public void doLatestBuildEvents(StaplerRequest req, StaplerResponse res)
+      throws IOException, ServletException {
+    checkPermission(Jenkins.READ);
+
+    StatusFeed feed = getStatusFeed();
+    long since = 0;
+    try {
+      since = Long.parseLong(req.getParameter("since"));
+    } catch (NumberFormatException e) {
+      // Send every row.
+    }
+    long version;
+    if (!isBuilding()) {
+      // Nothing will change; don't hold a request thread waiting for it.
+      version = feed.getVersion();
+      res.setHeader("X-Status-Done", "true");
+    } else {
+      try {
+        version = feed.await(since, LONG_POLL_TIMEOUT);
+      } catch (InterruptedException e) {
+        version = feed.getVersion();
+      }
+    }
+    forwardRows(req, res, since, version);
+  }
+
+  private void forwardRows(StaplerRequest req, StaplerResponse res,
+      long since, long version) throws IOException, ServletException {
+    req.setAttribute("builds", getLatestBuildsSince(since));
+    res.setHeader("X-Status-Version", String.valueOf(version));
+    req.getView(this, "latestBuildRows.jelly").forward(req, res);
+  }
+
   public void rebuild(AbstractProject project) throws ServletException {
     if (!getSubProjects().contains(project)) {
         throw new ServletException(
@@ -142,31 +437,86 @@ public class MasterBuild extends Build<MasterProject, MasterBuild> {
             + project.getDisplayName());
     }
 
-    SubResult subResult = masterResult.getResult(project.getDisplayName());
-    int rebuildNumber = subResult.getBuildNumbers().size();
-    Cause cause = new MasterBuildCause(this, rebuildNumber);
-    rebuild(project, cause);
+    SubResult subResult = masterResult.getResult(project.getFullName());
+    int rebuildNumber = subResult.getBuildCount();
+    // A sharded sub-project is rebuilt as a whole.
+    for (Shard shard : Shard.of(project, subResult.getShardCount())) {
+      rebuild(project, shard.newCause(this, rebuildNumber));
+    }
+  }
+
+  /*package*/ QueueTaskFuture<?> rebuild(AbstractProject project, Cause cause) {
+    QueueTaskFuture<?> future = rebuilder.rebuild(this, project, cause);
+    getStatusFeed().publish(project.getFullName());
+    return future;
   }
 
-  /*package*/ void rebuild(AbstractProject project, Cause cause) {
-    rebuilder.rebuild(this, project, cause);
+  /**
+   * Schedules a retry or hedge of a sub-project while this build runs;
+   * unlike {@link #rebuild(AbstractProject, Cause)}, it sends no rebuild
+   * notifications.
+   */
+  /*package*/ QueueTaskFuture<?> reschedule(
+      AbstractProject project, Cause cause) {
+    QueueTaskFuture<?> future = rebuilder.schedule(this, project, cause);
+    if (future != null) {
+      addFuture(future);
+    }
+    getStatusFeed().publish(project.getFullName());
+    return future;
   }
 
+  /**
+   * Renders the latest builds, or with a {@code since} version only the
+   * rows that changed after it. Responds 304 without rendering when the
+   * client's {@code If-None-Match} matches the current version.
+   */
   public void doRefreshLatestBuilds(StaplerRequest req, StaplerResponse res)
       throws IOException, ServletException {
     checkPermission(Jenkins.READ);
 
-    req.getView(this, "latestBuildList.jelly").forward(req, res);
+    StatusFeed feed = getStatusFeed();
+    long version = feed.getVersion();
+    long since = -1;
+    if (req.getParameter("since") != null) {
+      try {
+        since = Math.max(Long.parseLong(req.getParameter("since")), 0);
+      } catch (NumberFormatException e) {
+        since = 0; // Send every row.
+      }
+    }
+    String etag = feed.getETag(version, since);
+    if (etag.equals(req.getHeader("If-None-Match"))) {
+      res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    res.setHeader("ETag", etag);
+    // Cached copies must be revalidated, which is what makes them cheap.
+    res.setHeader("Cache-Control", "no-cache");
+    if (since < 0) {
+      req.getView(this, "latestBuildList.jelly").forward(req, res);
+    } else {
+      forwardRows(req, res, since, version);
+    }
   }
 
-  /*package*/ void addFuture(Future<AbstractBuild> future) {
+  /*package*/ void addFuture(Future<?> future) {
     futuresToAbort.add(future);
   }
 
+  /**
+   * @return whether this build is being stopped, in which case no further
+   *     sub-builds should be scheduled
+   */
+  /*package*/ boolean isStopping() {
+    return this.stopping;
+  }
+
   @Override
   public HttpResponse doStop()
       throws IOException, ServletException {
-    for (Future<AbstractBuild> future : futuresToAbort) {
+    this.stopping = true;
+    for (Future<?> future : futuresToAbort) {
       future.cancel(true);
     }
     return super.doStop();
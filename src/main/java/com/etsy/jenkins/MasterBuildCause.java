@@ -7,27 +7,57 @@ import hudson.model.Run;
 public class MasterBuildCause extends Cause.UpstreamCause {
 
   private final int rebuildNumber;
+  private final int shardIndex;
+  private final int shardCount;
 
   public MasterBuildCause(Run<?,?> master) {
     this(master, 0);
   }
 
   public MasterBuildCause(Run<?,?> master, int rebuildNumber) {
+    this(master, rebuildNumber, 0, 1);
+  }
+
+  public MasterBuildCause(
+      Run<?,?> master, int rebuildNumber, int shardIndex, int shardCount) {
     super(master);
     this.rebuildNumber = rebuildNumber;
+    this.shardIndex = shardIndex;
+    this.shardCount = shardCount;
   }
 
   public int getRebuildNumber() {
     return rebuildNumber;
   }
-    public boolean equals(Object rhs) {
 
-        if(rhs instanceof MasterBuildCause) {
-            return super.equals(rhs) 
-                && this.rebuildNumber == ((MasterBuildCause)rhs).getRebuildNumber();
-        } else {
-            return false;
-        }
-    } 
-}
+  public int getShardIndex() {
+    return shardIndex;
+  }
+
+  public int getShardCount() {
+    // Causes recorded before sharding have no count.
+    return Math.max(shardCount, 1);
+  }
+
+  @Override
+  public boolean equals(Object rhs) {
+    if (rhs instanceof MasterBuildCause) {
+      MasterBuildCause that = (MasterBuildCause) rhs;
+      return super.equals(rhs)
+          && this.rebuildNumber == that.getRebuildNumber()
+          && this.shardIndex == that.getShardIndex()
+          && this.getShardCount() == that.getShardCount();
+    } else {
+      return false;
+    }
+  }
 
+  @Override
+  public int hashCode() {
+    int hash = super.hashCode();
+    hash = 31 * hash + rebuildNumber;
+    hash = 31 * hash + shardIndex;
+    hash = 31 * hash + getShardCount();
+    return hash;
+  }
+}
@@ -5,35 +5,41 @@ import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
-import hudson.model.Cause;
 import hudson.model.ParametersAction;
+import hudson.model.queue.QueueTaskFuture;
 import hudson.tasks.Builder;
 import hudson.tasks.BuildStepDescriptor;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /*package*/ class MasterBuilder extends Builder {
 
+  private static final Logger LOGGER =
+      Logger.getLogger(MasterBuilder.class.getName());
+
   private final BuildWatcher.Factory buildWatcherFactory;
-  private final ExecutorService executorService;
+  private final SubBuildMonitor monitor;
   private final ParametersActionPropagator parametersActionPropagator;
 
   @Inject
   public MasterBuilder(
       BuildWatcher.Factory buildWatcherFactory,
-      ExecutorService executorService,
+      SubBuildMonitor monitor,
       ParametersActionPropagator parametersActionPropagator) {
     this.buildWatcherFactory = buildWatcherFactory;
-    this.executorService = executorService;
+    this.monitor = monitor;
     this.parametersActionPropagator = parametersActionPropagator;
   }
 
@@ -42,68 +48,181 @@ import java.util.concurrent.Future;
       AbstractBuild build, Launcher launcher, BuildListener listener)
       throws InterruptedException, IOException {
     MasterBuild masterBuild = (MasterBuild) build;
+    int unaffected = masterBuild.retainAffectedSubProjects();
+    if (unaffected > 0) {
+      listener.getLogger().printf(
+          "Skipping %d sub-projects not affected by the changes\n",
+          unaffected);
+    }
+    // Here rather than on the watcher's timer thread, which is shared.
+    masterBuild.getPropagationPlan().digestFiles();
     Set<AbstractProject> subProjects = masterBuild.getSubProjects();
     Set<AbstractProject> hiddenSubProjects = masterBuild.getHiddenSubProjects();
 
-    Cause cause = new MasterBuildCause(masterBuild);
+    List<Shard> order = Lists.<Shard>newArrayList();
+    for (AbstractProject subProject
+        : getScheduleOrder(masterBuild, subProjects)) {
+      order.addAll(
+          Shard.of(subProject, masterBuild.getShardCount(subProject)));
+    }
+    int window = masterBuild.getMaxInFlight();
+    if (window <= 0 || window > order.size()) {
+      window = order.size();
+    }
+    if (masterBuild.getBuildAvoidance()
+        || masterBuild.getDependencies() != null) {
+      // The watcher looks for reusable builds and waits for dependencies
+      // as it schedules.
+      window = 0;
+    }
+    // The rest are scheduled by the watcher as earlier sub-builds finish.
+    List<Shard> pending = Lists.<Shard>newArrayList(
+        order.subList(window, order.size()));
 
-    scheduleBuilds(masterBuild, subProjects, cause, listener);
+    Map<Shard, QueueTaskFuture<?>> futures = scheduleBuilds(
+        masterBuild, order.subList(0, window), listener);
 
-    scheduleHiddenBuilds(masterBuild, hiddenSubProjects, cause, listener);
+    scheduleHiddenBuilds(masterBuild, hiddenSubProjects, listener);
 
-    waitForBuilds(masterBuild, subProjects, cause, listener);
+    waitForBuilds(masterBuild, Sets.<Shard>newHashSet(order), futures,
+        pending, listener);
+    masterBuild.flush();
 
     return false; // This should be the only builder
   }
 
-  /*package*/ void scheduleBuilds(
+  /*package*/ Map<Shard, QueueTaskFuture<?>> scheduleBuilds(
       MasterBuild masterBuild,
-      Set<AbstractProject> subProjects, 
-      Cause cause,
+      List<Shard> shards, 
       BuildListener listener) {
+    Map<Shard, QueueTaskFuture<?>> futures =
+        Maps.<Shard, QueueTaskFuture<?>>newHashMap();
+    for (Shard shard : shards) {
+      QueueTaskFuture<AbstractBuild> future =
+          scheduleBuild(masterBuild, shard, listener);
+      if (future != null) {
+        masterBuild.addFuture(future);
+      }
+      futures.put(shard, future);
+    }
+    return futures;
+  }
+
+  /**
+   * Orders sub-projects for scheduling. The queue hands out executors in
+   * the order items were scheduled, so starting the longest sub-builds
+   * (or with dependencies, the longest chains) first keeps them from
+   * becoming the tail of the master build.
+   */
+  /*package*/ List<AbstractProject> getScheduleOrder(
+      MasterBuild masterBuild, Set<AbstractProject> subProjects) {
+    List<AbstractProject> order =
+        Lists.<AbstractProject>newArrayList(subProjects);
+    SubProjectGraph graph = masterBuild.getDependencies();
+    if (graph != null) {
+      Collections.sort(order, criticalPathFirst(graph, subProjects));
+    } else if (masterBuild.getLongestFirst()) {
+      Collections.sort(order, longestFirst(subProjects));
+    }
+    return order;
+  }
+
+  private static Comparator<AbstractProject> criticalPathFirst(
+      SubProjectGraph graph, Set<AbstractProject> subProjects) {
+    Map<String, Long> durations = Maps.<String, Long>newHashMap();
     for (AbstractProject subProject : subProjects) {
-      Future<AbstractBuild> future =
-          scheduleBuild(masterBuild, subProject, cause, listener);
-      masterBuild.addFuture(future);
+      // Unknown durations count as zero here, so that they add up.
+      durations.put(
+          subProject.getName(),
+          Math.max(subProject.getEstimatedDuration(), 0));
     }
+    return byName(largestFirst(graph.getCriticalPathLengths(durations)));
+  }
+
+  private static Comparator<AbstractProject> longestFirst(
+      Set<AbstractProject> subProjects) {
+    // Estimates walk the build history, so make them once, not per compare.
+    Map<String, Long> durations = Maps.<String, Long>newHashMap();
+    for (AbstractProject subProject : subProjects) {
+      durations.put(subProject.getName(), estimatedDuration(subProject));
+    }
+    return byName(largestFirst(durations));
+  }
+
+  /**
+   * @return an order of names by their value in {@code values}, largest
+   *     first
+   */
+  /*package*/ static Comparator<String> largestFirst(
+      final Map<String, Long> values) {
+    return new Comparator<String>() {
+      public int compare(String a, String b) {
+        long valueA = values.get(a);
+        long valueB = values.get(b);
+        return valueA > valueB ? -1 : (valueA < valueB ? 1 : 0);
+      }
+    };
+  }
+
+  private static Comparator<AbstractProject> byName(
+      final Comparator<String> names) {
+    return new Comparator<AbstractProject>() {
+      public int compare(AbstractProject a, AbstractProject b) {
+        return names.compare(a.getName(), b.getName());
+      }
+    };
+  }
+
+  private static long estimatedDuration(AbstractProject project) {
+    long duration = project.getEstimatedDuration();
+    // Projects without history might be long; don't leave them for last.
+    return duration < 0 ? Long.MAX_VALUE : duration;
   }
 
   /*package*/ void scheduleHiddenBuilds(
       MasterBuild masterBuild,
       Set<AbstractProject> subProjects,
-      Cause cause,
       BuildListener listener) {
     for (AbstractProject subProject : subProjects) {
-      scheduleBuild(masterBuild, subProject, cause, listener);
+      scheduleBuild(masterBuild, new Shard(subProject, 0, 1), listener);
     }
   }
 
-  /*package*/ Future<AbstractBuild> scheduleBuild(
+  /*package*/ QueueTaskFuture<AbstractBuild> scheduleBuild(
       MasterBuild masterBuild,
-      AbstractProject subProject,
-      Cause cause,
+      Shard shard,
       BuildListener listener) {
+    MasterBuildCause cause = shard.newCause(masterBuild, 0);
     ParametersAction[] parametersActions =
         parametersActionPropagator
-            .getPropagatedActions(masterBuild, subProject);
-    Future<AbstractBuild> future =
-        subProject.scheduleBuild2(0, cause, parametersActions);
-    listener.getLogger().printf("Build scheduled: %s\n", 
-        subProject.getDisplayName());
+            .getPropagatedActions(masterBuild, shard.getProject(), cause);
+    QueueTaskFuture<AbstractBuild> future =
+        shard.getProject().scheduleBuild2(0, cause, parametersActions);
+    if (future == null) {
+      listener.getLogger().printf("Build could not be scheduled: %s\n",
+          shard.getDisplayName());
+    } else {
+      listener.getLogger().printf("Build scheduled: %s\n", 
+          shard.getDisplayName());
+    }
     return future;
   }
 
   /*package*/ void waitForBuilds(MasterBuild masterBuild,
-      Set<AbstractProject> subProjects, Cause cause, BuildListener listener) {
-    BuildWatcher watcher = 
-        buildWatcherFactory.create(masterBuild, subProjects, cause, listener);
+      Set<Shard> shards,
+      Map<Shard, QueueTaskFuture<?>> futures,
+      List<Shard> pending,
+      BuildListener listener) {
+    BuildWatcher watcher = buildWatcherFactory.create(
+        masterBuild, shards, futures, pending, listener);
+    monitor.watch(masterBuild, watcher);
     try {
-      Future<?> future = executorService.submit(watcher);
-      future.get();
-    } catch (ExecutionException e) {
-      e.printStackTrace();
+      watcher.await();
     } catch (InterruptedException e) {
-      e.printStackTrace();
+      monitor.unwatch(masterBuild, watcher);
+      LOGGER.log(Level.INFO,
+          "Interrupted while waiting for " + masterBuild.getFullDisplayName(),
+          e);
     }
   }
 
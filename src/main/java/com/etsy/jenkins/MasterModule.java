@@ -2,10 +2,12 @@ package com.etsy.jenkins;
 
 import com.etsy.jenkins.cli.BuildMasterCommand;
 import com.etsy.jenkins.cli.handlers.MasterProjectOptionHandler;
+import com.etsy.jenkins.finder.ProjectFinder;
 
 import hudson.model.AbstractBuild;
 import hudson.model.Hudson;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.google.inject.TypeLiteral;
@@ -14,9 +16,21 @@ import com.google.inject.assistedinject.FactoryProvider;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /*package*/ class MasterModule extends AbstractModule {
 
+  private static final Logger LOGGER =
+      Logger.getLogger(MasterModule.class.getName());
+
+  private static final String EXECUTOR_PROPERTY =
+      "com.etsy.jenkins.MasterProject.executor";
+  private static final String POOL_SIZE_PROPERTY =
+      "com.etsy.jenkins.MasterProject.poolSize";
+  private static final int DEFAULT_POOL_SIZE = 4;
+
   protected void configure() {
     bind(Hudson.class).toInstance(Hudson.getInstance());
     bind(BuildWatcher.Factory.class)
@@ -27,9 +41,20 @@ import java.util.concurrent.ExecutorService;
         .toProvider(
             FactoryProvider.newFactory(
                 RebuildWatcher.Factory.class, RebuildWatcher.class));
-    bindConstant().annotatedWith(MasterProject.PingTime.class).to(7000L);
-    //Thread pool size; should be >= number of build slaves
-    ExecutorService executor = Executors.newFixedThreadPool(150);
+    // Sub-build events wake watchers; polling is only a safety net.
+    bindConstant().annotatedWith(MasterProject.SafetyNetTime.class).to(60000L);
+    bindConstant().annotatedWith(MasterProject.SaveWindow.class).to(2000L);
+    bind(ScheduledExecutorService.class)
+        .toInstance(
+            Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("MasterProject timer")
+                    .build()));
+    // Watchers share the timer above, so nothing run on it may block: file
+    // and log work, saves and notifications are handed to this executor,
+    // which does not grow with concurrent master builds.
+    ExecutorService executor = newWorkerExecutor();
     bind(ExecutorService.class)
         .toInstance(executor);
     bind(Executor.class)
@@ -45,6 +70,35 @@ import java.util.concurrent.ExecutorService;
     requestStaticInjection(BuildMasterCommand.class);
     requestStaticInjection(MasterProjectOptionHandler.class);
     requestStaticInjection(RebuildNotifierProperty.class);
+    requestStaticInjection(SubBuildListener.class);
+    requestStaticInjection(ProjectFinder.ItemListenerImpl.class);
+  }
+
+  /**
+   * Creates the worker executor selected by the
+   * {@code com.etsy.jenkins.MasterProject.executor} system property:
+   * {@code virtual} runs each task on its own virtual thread where the JDK
+   * supports it; anything else uses a fixed pool of
+   * {@code com.etsy.jenkins.MasterProject.poolSize} daemon threads.
+   */
+  private static ExecutorService newWorkerExecutor() {
+    if ("virtual".equals(System.getProperty(EXECUTOR_PROPERTY))) {
+      try {
+        // Looked up reflectively so the plugin still runs on older JDKs.
+        return (ExecutorService) Executors.class
+            .getMethod("newVirtualThreadPerTaskExecutor")
+            .invoke(null);
+      } catch (Exception e) {
+        LOGGER.log(Level.WARNING,
+            "Virtual threads are not available; using a thread pool", e);
+      }
+    }
+    return Executors.newFixedThreadPool(
+        Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE),
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("MasterProject worker %d")
+            .build());
   }
 }
 
@@ -54,6 +54,12 @@ import java.util.Set;
 import java.util.StringTokenizer;
 import javax.servlet.ServletException;
 
+/**
+ * A project that fans out builds of its sub-projects and waits for them.
+ *
+ * A master build takes an executor slot like any other build; see
+ * {@link FlyweightMasterProject} for one that does not.
+ */
 public class MasterProject
 extends Project<MasterProject, MasterBuild>
 implements TopLevelItem {
@@ -61,13 +67,19 @@ implements TopLevelItem {
   @BindingAnnotation
   @Target({ElementType.FIELD, ElementType.PARAMETER, ElementType.METHOD })
   @Retention(RetentionPolicy.RUNTIME)
-  public @interface PingTime {}
+  public @interface SafetyNetTime {}
+
+  @BindingAnnotation
+  @Target({ElementType.FIELD, ElementType.PARAMETER, ElementType.METHOD })
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface SaveWindow {}
 
   /*package*/ final Set<String> jobNames;
 
   @Inject static Hudson hudson;
   @Inject static ProjectFinder projectFinder;
   @Inject static Provider<MasterBuilder> masterBuilderProvider;
+  @Inject static BuildSaver buildSaver;
 
   @DataBoundConstructor
   public MasterProject(
@@ -231,11 +243,8 @@ implements TopLevelItem {
   }
 
   public Set<AbstractProject> getSubProjects() {
-    Set<AbstractProject> subProjects = Sets.<AbstractProject>newLinkedHashSet();
-    for (String jobName : jobNames) {
-      subProjects.add(projectFinder.findProject(jobName));
-    }
-    return subProjects;
+    return Sets.<AbstractProject>newLinkedHashSet(
+        projectFinder.findProjects(jobNames).values());
   }
 
   public Set<String> getSubProjectNames() {
@@ -278,6 +287,11 @@ implements TopLevelItem {
         project.onRenamed(item, oldName, newName);
       }
     }
+
+    @Override
+    public void onBeforeShutdown() {
+      buildSaver.flushAll();
+    }
   };
 }
 
@@ -8,37 +8,50 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import hudson.model.queue.QueueTaskFuture;
 
-import java.util.List;
-import java.util.concurrent.Executor;
 
 @Singleton
 /*package*/ class MasterRebuilder {
 
   private final RebuildWatcher.Factory rebuildWatcherFactory;
-  private final Executor executor;
+  private final SubBuildMonitor monitor;
   private final ParametersActionPropagator parametersActionPropagator;
 
   @Inject
   public MasterRebuilder(
       RebuildWatcher.Factory rebuildWatcherFactory,
-      Executor executor,
+      SubBuildMonitor monitor,
       ParametersActionPropagator parametersActionPropagator) {
     this.rebuildWatcherFactory = rebuildWatcherFactory;
-    this.executor = executor;
+    this.monitor = monitor;
     this.parametersActionPropagator = parametersActionPropagator;
   }
 
-  public void rebuild(
+  /**
+   * Schedules a manual rebuild of {@code project}, which is watched until
+   * it finishes so that notifications and permalinks follow its result.
+   */
+  public QueueTaskFuture<?> rebuild(
+      MasterBuild masterBuild, AbstractProject project, Cause cause) {
+    QueueTaskFuture<?> buildFuture = schedule(masterBuild, project, cause);
+    if (buildFuture != null) {
+      monitor.watch(
+          masterBuild,
+          rebuildWatcherFactory.create(
+              masterBuild, project, cause, buildFuture));
+    }
+    return buildFuture;
+  }
+
+  /**
+   * Schedules another build of {@code project} on behalf of a running
+   * master build, e.g. a retry or a hedge. Its {@link BuildWatcher} follows
+   * it, so no {@link RebuildWatcher} is attached.
+   */
+  public QueueTaskFuture<?> schedule(
       MasterBuild masterBuild, AbstractProject project, Cause cause) {
-    List<ParametersAction> parametersActionList =
-        masterBuild.getActions(ParametersAction.class);
     ParametersAction[] parameterActions =
         parametersActionPropagator
-            .getPropagatedActions(masterBuild, project);
-    QueueTaskFuture<?> buildFuture =
-        project.scheduleBuild2(0, cause, parameterActions);
-    executor.execute(
-        rebuildWatcherFactory.create(masterBuild, project, cause, buildFuture));
+            .getPropagatedActions(masterBuild, project, cause);
+    return project.scheduleBuild2(0, cause, parameterActions);
   }
 }
-
@@ -12,6 +12,7 @@ import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -20,58 +21,168 @@ import java.util.Set;
 
   @Inject static ProjectFinder projectFinder;
 
+  // By the sub-projects' full names, which ProjectFinder resolves.
   /*package*/ Map<String, SubResult> results;
 
+  // Combined result of the sub-results, kept once they have all finished.
+  // Cleared whenever a sub-build is added or finishes.
+  private volatile Result overallResult;
+  // Results of the sub-projects that have finished, kept up to date as
+  // sub-builds are added and finish so that the overall result is combined
+  // without loading builds; null until the first full walk after loading.
+  private transient Map<String, Result> settled;
+  // Settled sub-projects whose every shard that ran was aborted by
+  // fail-fast.
+  private transient Set<String> discarded;
+  // Queue waits of sub-builds not added yet, by project name and number.
+  private transient Map<String, Long> queueWaits;
+
   public MasterResult() {
     this.results = Maps.<String, SubResult>newHashMap();
   }
 
   public Set<AbstractProject> getProjects() {
-    Set<AbstractProject> projects = Sets.<AbstractProject>newHashSet();
-    for (String name : this.results.keySet()) {
-      projects.add(projectFinder.findProject(name));
-    }
-    return projects;
+    return Sets.<AbstractProject>newHashSet(
+        projectFinder.findProjects(this.results.keySet()).values());
+  }
+
+  /**
+   * @return the results of the sub-projects, with their timing
+   */
+  public Collection<SubResult> getSubResults() {
+    return this.results.values();
+  }
+
+  /**
+   * @return the full names of the sub-projects built so far
+   */
+  public synchronized Set<String> getProjectNames() {
+    return Sets.<String>newHashSet(this.results.keySet());
   }
 
   public SubResult getResult(String projectName) {
     return this.results.get(projectName);
   }
 
-  public void addBuild(String projectName, Integer buildNumber) {
+  public synchronized void addBuild(String projectName, Integer buildNumber) {
     SubResult result = getResult(projectName);
     if (result == null) {
       result = new SubResult(projectName);
     }
     result.addBuildNumber(buildNumber);
+    Long queueWait = queueWaits == null
+        ? null : queueWaits.remove(projectName + "#" + buildNumber);
+    if (queueWait != null) {
+      result.setQueueWait(buildNumber, queueWait);
+    }
     this.results.put(projectName, result);
+    this.overallResult = null;
+    if (settled != null) {
+      // Usually running; a build may also have finished before it was added.
+      settle(projectName, result);
+    }
+  }
+
+  /**
+   * Records a finished sub-build and drops the cached results it affects.
+   *
+   * @return whether the sub-project is part of this result
+   */
+  public synchronized boolean onBuildCompleted(
+      String projectName, AbstractBuild build) {
+    SubResult result = getResult(projectName);
+    if (result == null) {
+      return false;
+    }
+    result.onBuildCompleted(build);
+    this.overallResult = null;
+    if (settled != null) {
+      settle(projectName, result);
+    }
+    return true;
+  }
+
+  /**
+   * Records how long a sub-build waited in the queue; sub-builds usually
+   * leave the queue before they are added.
+   */
+  public void onBuildLeftQueue(
+      String projectName, int buildNumber, long queueWait) {
+    SubResult result = getResult(projectName);
+    if (result != null) {
+      result.setQueueWait(buildNumber, queueWait);
+      return;
+    }
+    if (queueWaits == null) {
+      queueWaits = Maps.<String, Long>newHashMap();
+    }
+    queueWaits.put(projectName + "#" + buildNumber, queueWait);
   }
 
   public List<AbstractBuild> getLatestBuilds() {
     List<AbstractBuild> builds = Lists.<AbstractBuild>newArrayList();
     for (SubResult subResult : results.values()) {
-      builds.add(subResult.getLatestBuild());
+      builds.addAll(subResult.getLatestBuilds());
     }
     return builds;
   }
 
-  public Result getOverallResult() {
+  public synchronized Result getOverallResult() {
+    Result cached = this.overallResult;
+    if (cached != null) {
+      return cached;
+    }
+    if (settled == null) {
+      // Loaded from disk, or not asked before: walk every sub-result once.
+      settled = Maps.<String, Result>newHashMap();
+      discarded = Sets.<String>newHashSet();
+      for (Map.Entry<String, SubResult> entry : results.entrySet()) {
+        settle(entry.getKey(), entry.getValue());
+      }
+    }
+
+    boolean finished = settled.size() == results.size();
     Result endResult = (results.isEmpty()) ? Result.FAILURE : Result.SUCCESS;
-    for (SubResult subResult : results.values()) {
-      Result result = subResult.getResult();
-      if (result == null) {
-        result = Result.NOT_BUILT;
+    if (!finished) {
+      endResult = endResult.combine(Result.NOT_BUILT);
+    }
+    for (Map.Entry<String, Result> entry : settled.entrySet()) {
+      if (discarded.contains(entry.getKey())) {
+        // Aborted by fail-fast; the failure that caused it decides.
+        continue;
       }
-      endResult = endResult.combine(result);
+      endResult = endResult.combine(entry.getValue());
+    }
+    if (finished) {
+      this.overallResult = endResult;
     }
     return endResult;
   }
 
+  /**
+   * Brings the settled result of one sub-project up to date.
+   */
+  private void settle(String projectName, SubResult subResult) {
+    Result result = subResult.getResult();
+    if (result == null) {
+      settled.remove(projectName);
+      discarded.remove(projectName);
+      return;
+    }
+    settled.put(projectName, result);
+    if (subResult.isDiscarded()) {
+      discarded.add(projectName);
+    } else {
+      discarded.remove(projectName);
+    }
+  }
+
   public boolean isBuilding() {
     for (SubResult subResult : results.values()) {
-      AbstractBuild latestSubBuild = subResult.getLatestBuild();
-      if (latestSubBuild != null && latestSubBuild.isBuilding()) {
-        return true;
+      for (AbstractBuild latestSubBuild : subResult.getLatestBuilds()) {
+        if (latestSubBuild != null && latestSubBuild.isBuilding()) {
+          return true;
+        }
       }
     }
     return false;
@@ -0,0 +1,71 @@
+package com.etsy.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Limits how many sub-builds of a master build are scheduled at once; the
+ * rest are scheduled as earlier ones finish.
+ */
+public class MaxInFlightJobProperty extends JobProperty<MasterProject> {
+
+  private int maxInFlight;
+
+  @DataBoundConstructor
+  public MaxInFlightJobProperty(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  @Override
+  public boolean prebuild(AbstractBuild build, BuildListener listener) {
+    ((MasterBuild) build).setMaxInFlight(this.maxInFlight);
+    return true;
+  }
+
+  public int getMaxInFlight() {
+     return this.maxInFlight;
+  }
+
+  @Override
+  public JobPropertyDescriptor getDescriptor() {
+    return DESCRIPTOR;
+  }
+
+  @Extension
+  public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+  public static class DescriptorImpl extends JobPropertyDescriptor {
+
+    @Override
+    public String getDisplayName() {
+      return "Limit Concurrent Sub-Builds";
+    }
+
+    @Override
+    public boolean isApplicable(Class<? extends Job> jobType) {
+        return jobType.equals(MasterProject.class);
+    }
+
+    @Override
+    public JobProperty<?> newInstance(
+        StaplerRequest req,
+        JSONObject formData)
+        throws Descriptor.FormException {
+      JSONObject property = formData.optJSONObject("maxInFlightJobProperty");
+      if (property == null) {
+        return null;
+      }
+      int maxInFlight = Integer.parseInt(property.getString("maxInFlight"));
+      return new MaxInFlightJobProperty(maxInFlight);
+    }
+  }
+}
@@ -1,70 +1,67 @@
 package com.etsy.jenkins;
 
 import hudson.model.AbstractProject;
-import hudson.model.FileParameterValue;
+import hudson.model.Cause;
 import hudson.model.JobProperty;
-import hudson.model.ParameterDefinition;
 import hudson.model.ParameterValue;
 import hudson.model.ParametersAction;
-import hudson.model.ParametersDefinitionProperty;
+import hudson.model.StringParameterValue;
 
 import com.google.common.collect.Lists;
 
-import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 
 public class ParametersActionPropagator {
 
-  public ParametersAction[] getPropagatedActions(
-      MasterBuild masterBuild,
-      AbstractProject subProject) {
-    List<ParametersAction> parametersActionList = 
-        masterBuild.getActions(ParametersAction.class);
-    List<ParametersAction> propagatedParametersActionList =
-        Lists.<ParametersAction>newArrayList();
-    for (ParametersAction action : parametersActionList) {
-      ParametersAction propagated = 
-          getPropagatedAction(masterBuild, subProject, action);
-      propagatedParametersActionList.add(propagated);
-    }
+  public static final String SHARD_INDEX = "SHARD_INDEX";
+  public static final String SHARD_COUNT = "SHARD_COUNT";
 
-    return propagatedParametersActionList.toArray(
-        new ParametersAction[propagatedParametersActionList.size()]);
-  }
-
-  public ParametersAction getPropagatedAction(
+  /**
+   * Propagates the master build's parameters to a sub-build started with
+   * {@code cause}, adding {@code SHARD_INDEX} and {@code SHARD_COUNT} when
+   * it builds one shard of the sub-project.
+   */
+  public ParametersAction[] getPropagatedActions(
       MasterBuild masterBuild,
-      AbstractProject subProject, 
-      ParametersAction action) {
-    ParametersDefinitionProperty pdp = (ParametersDefinitionProperty)
-        subProject.getProperty(ParametersDefinitionProperty.class);
-    if (pdp == null) {
-        return null; // This project does not have parameters
+      AbstractProject subProject,
+      Cause cause) {
+    ParametersAction[] actions =
+        getPropagatedActions(masterBuild, subProject);
+    if (!(cause instanceof MasterBuildCause)
+        || ((MasterBuildCause) cause).getShardCount() <= 1) {
+      return actions;
     }
-
-    List<ParameterValue> values = Lists.<ParameterValue>newArrayList();
-    for (ParameterValue value : action.getParameters()) {
-      String name = value.getName();
-      ParameterDefinition pd = pdp.getParameterDefinition(name);
-      if (pd == null) {
-        continue; // This project does not have this parameter
+    MasterBuildCause masterBuildCause = (MasterBuildCause) cause;
+    List<ParameterValue> shardValues = Lists.<ParameterValue>newArrayList(
+        new StringParameterValue(SHARD_INDEX,
+            String.valueOf(masterBuildCause.getShardIndex())),
+        new StringParameterValue(SHARD_COUNT,
+            String.valueOf(masterBuildCause.getShardCount())));
+    // Merged into an existing action so the sub-build has one set of
+    // parameters.
+    for (int i = 0; i < actions.length; i++) {
+      if (actions[i] != null) {
+        List<ParameterValue> values =
+            Lists.<ParameterValue>newArrayList(actions[i].getParameters());
+        values.addAll(shardValues);
+        actions[i] = new ParametersAction(values);
+        return actions;
       }
-
-      // File parameters are special
-      if (value instanceof FileParameterValue) {
-        final String location = pd.getName();
-        File file = new File(
-            masterBuild.getRootDir(), 
-            "fileParameters/" + location);
-        String originalFileName = 
-            ((FileParameterValue) value).getOriginalFileName();
-        value = new PropagatedFileParameterValue(
-            location, file, originalFileName);
-      }
-      values.add(value);
     }
+    ParametersAction[] withShard =
+        Arrays.copyOf(actions, actions.length + 1);
+    withShard[actions.length] = new ParametersAction(shardValues);
+    return withShard;
+  }
 
-    return new ParametersAction(values); 
+  /**
+   * Propagates the master build's parameters to a sub-build, following the
+   * master build's {@link PropagationPlan}.
+   */
+  public ParametersAction[] getPropagatedActions(
+      MasterBuild masterBuild,
+      AbstractProject subProject) {
+    return masterBuild.getPropagationPlan().newActions(subProject);
   }
 }
-
@@ -0,0 +1,137 @@
+package com.etsy.jenkins;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled table of rules mapping file path globs to sub-projects.
+ *
+ * Each line of the table is a glob followed by the names of the
+ * sub-projects it affects, e.g. {@code src/payments/** payments-tests}.
+ * {@code **} matches any number of directories, {@code *} and {@code ?}
+ * match within one path segment, and lines starting with {@code #} are
+ * comments. Rules are indexed by the first segment of their glob, so a
+ * path is only matched against the rules that can apply to it.
+ */
+/*package*/ class PathRules {
+
+  private static final class Rule {
+
+    private final Pattern pattern;
+    private final Set<String> projects;
+
+    private Rule(Pattern pattern, Set<String> projects) {
+      this.pattern = pattern;
+      this.projects = projects;
+    }
+  }
+
+  private final Map<String, List<Rule>> rulesBySegment =
+      Maps.<String, List<Rule>>newHashMap();
+  private final List<Rule> wildcardRules = Lists.<Rule>newArrayList();
+
+  public PathRules(String table) {
+    for (String line : table.split("\\r?\\n")) {
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+      StringTokenizer tokenizer = new StringTokenizer(line);
+      String glob = stripLeadingSlash(tokenizer.nextToken());
+      Set<String> projects = Sets.<String>newHashSet();
+      while (tokenizer.hasMoreTokens()) {
+        projects.add(tokenizer.nextToken());
+      }
+      if (projects.isEmpty()) {
+        throw new IllegalArgumentException(
+            "No sub-projects for path rule: " + line);
+      }
+      Rule rule = new Rule(Pattern.compile(toRegex(glob)), projects);
+      String segment = firstSegment(glob);
+      if (isLiteral(segment) && segment.length() < glob.length()) {
+        List<Rule> rules = rulesBySegment.get(segment);
+        if (rules == null) {
+          rules = Lists.<Rule>newArrayList();
+          rulesBySegment.put(segment, rules);
+        }
+        rules.add(rule);
+      } else {
+        wildcardRules.add(rule);
+      }
+    }
+  }
+
+  /**
+   * Adds the sub-projects affected by {@code path} to {@code projects}.
+   *
+   * @return whether any rule matched the path
+   */
+  public boolean match(String path, Set<String> projects) {
+    path = stripLeadingSlash(path);
+    boolean matched = false;
+    List<Rule> rules = rulesBySegment.get(firstSegment(path));
+    if (rules != null) {
+      matched |= match(rules, path, projects);
+    }
+    matched |= match(wildcardRules, path, projects);
+    return matched;
+  }
+
+  private static boolean match(
+      List<Rule> rules, String path, Set<String> projects) {
+    boolean matched = false;
+    for (Rule rule : rules) {
+      if (rule.pattern.matcher(path).matches()) {
+        projects.addAll(rule.projects);
+        matched = true;
+      }
+    }
+    return matched;
+  }
+
+  private static String toRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '*') {
+        if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+          i++;
+          if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+            // "**/" also matches no directories at all.
+            i++;
+            regex.append("(?:.*/)?");
+          } else {
+            regex.append(".*");
+          }
+        } else {
+          regex.append("[^/]*");
+        }
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return regex.toString();
+  }
+
+  private static String firstSegment(String path) {
+    int slash = path.indexOf('/');
+    return slash < 0 ? path : path.substring(0, slash);
+  }
+
+  private static boolean isLiteral(String segment) {
+    return segment.indexOf('*') < 0 && segment.indexOf('?') < 0;
+  }
+
+  private static String stripLeadingSlash(String path) {
+    return path.startsWith("/") ? path.substring(1) : path;
+  }
+}
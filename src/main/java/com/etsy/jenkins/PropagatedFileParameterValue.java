@@ -7,6 +7,7 @@ import hudson.model.BuildListener;
 import hudson.model.Environment;
 import hudson.model.FileParameterValue;
 import hudson.model.FileParameterValue.FileItemImpl;
+import hudson.model.Node;
 import hudson.tasks.BuildWrapper;
 
 import org.kohsuke.stapler.StaplerRequest;
@@ -24,11 +25,29 @@ public class PropagatedFileParameterValue
 extends FileParameterValue {
 
   private FileItem file;
+  // The master build's copy and its MD5 digest; null in older records.
+  private final File source;
+  private final String digest;
 
   public PropagatedFileParameterValue(
       String name, File file, String originalName) {
+    this(name, file, originalName, null);
+  }
+
+  public PropagatedFileParameterValue(
+      String name, File file, String originalName, String digest) {
     super(name, file, originalName);
     this.file = new FileItemImpl(file);
+    this.source = file;
+    this.digest = digest;
+  }
+
+  /**
+   * @return the MD5 digest of the master build's copy of the file, or
+   *     {@code null} if it is not known
+   */
+  public String getDigest() {
+    return digest;
   }
 
   @Override
@@ -44,9 +63,23 @@ extends FileParameterValue {
           listener.getLogger().println("Copying file to " + getName());
           FilePath locationFilePath = build.getWorkspace().child(getName());
           locationFilePath.getParent().mkdirs();
-          locationFilePath.copyFrom(file);
+          Node node = build.getBuiltOn();
+          FilePath nodeRoot = node == null ? null : node.getRootPath();
+          if (digest != null && source != null && source.isFile()
+              && nodeRoot != null) {
+            FileParameterCache.place(
+                source,
+                digest,
+                getLocationUnderBuild(build),
+                locationFilePath,
+                nodeRoot,
+                listener);
+          } else {
+            locationFilePath.copyFrom(file);
+            locationFilePath.copyTo(
+                new FilePath(getLocationUnderBuild(build)));
+          }
           file = null;
-          locationFilePath.copyTo(new FilePath(getLocationUnderBuild(build)));
         } 
         return new Environment(){};
       }
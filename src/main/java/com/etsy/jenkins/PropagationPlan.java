@@ -0,0 +1,158 @@
+package com.etsy.jenkins;
+
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.FileParameterValue;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.ParametersDefinitionProperty;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The parameters a master build passes on to each of its sub-projects,
+ * worked out once per master build and reused for every schedule and
+ * rebuild.
+ *
+ * For each of the master build's {@link ParametersAction}s, a sub-project
+ * gets the values it defines parameters for. Sub-projects that define the
+ * same parameters share one value list.
+ */
+/*package*/ class PropagationPlan {
+
+  private static final Logger LOGGER =
+      Logger.getLogger(PropagationPlan.class.getName());
+
+  private final MasterBuild masterBuild;
+  private final List<ParametersAction> actions;
+
+  // Sub-project full name to its value lists, one per master action.
+  private final ConcurrentMap<String, List<List<ParameterValue>>> plans =
+      Maps.<String, List<List<ParameterValue>>>newConcurrentMap();
+  // MD5 digests of the master build's file parameters, by path.
+  private final ConcurrentMap<String, String> digests =
+      Maps.<String, String>newConcurrentMap();
+  // Action index and names of the values kept, to the shared value list.
+  private final ConcurrentMap<List<Object>, List<ParameterValue>> shared =
+      Maps.<List<Object>, List<ParameterValue>>newConcurrentMap();
+
+  public PropagationPlan(MasterBuild masterBuild) {
+    this.masterBuild = masterBuild;
+    this.actions = Lists.<ParametersAction>newArrayList(
+        masterBuild.getActions(ParametersAction.class));
+  }
+
+  /**
+   * @return new actions carrying the values planned for {@code subProject},
+   *     one per master action, or {@code null} entries if it has no
+   *     parameters
+   */
+  public ParametersAction[] newActions(AbstractProject subProject) {
+    List<List<ParameterValue>> plan = getPlan(subProject);
+    ParametersAction[] newActions = new ParametersAction[plan.size()];
+    for (int i = 0; i < newActions.length; i++) {
+      List<ParameterValue> values = plan.get(i);
+      if (values == null) {
+        continue;
+      }
+      List<ParameterValue> copy =
+          Lists.<ParameterValue>newArrayListWithCapacity(values.size());
+      for (ParameterValue value : values) {
+        // File values are consumed by the build they are given to.
+        if (value instanceof FileParameterValue) {
+          value = newFileValue((FileParameterValue) value);
+        }
+        copy.add(value);
+      }
+      newActions[i] = new ParametersAction(copy);
+    }
+    return newActions;
+  }
+
+  private List<List<ParameterValue>> getPlan(AbstractProject subProject) {
+    List<List<ParameterValue>> plan = plans.get(subProject.getFullName());
+    if (plan == null) {
+      plan = computePlan(subProject);
+      plans.putIfAbsent(subProject.getFullName(), plan);
+    }
+    return plan;
+  }
+
+  private List<List<ParameterValue>> computePlan(AbstractProject subProject) {
+    ParametersDefinitionProperty pdp = (ParametersDefinitionProperty)
+        subProject.getProperty(ParametersDefinitionProperty.class);
+    List<List<ParameterValue>> plan =
+        Lists.<List<ParameterValue>>newArrayListWithCapacity(actions.size());
+    for (int i = 0; i < actions.size(); i++) {
+      if (pdp == null) {
+        plan.add(null); // This project does not have parameters
+        continue;
+      }
+      List<ParameterValue> values = Lists.<ParameterValue>newArrayList();
+      List<Object> key = Lists.<Object>newArrayList();
+      key.add(i);
+      for (ParameterValue value : actions.get(i).getParameters()) {
+        if (pdp.getParameterDefinition(value.getName()) == null) {
+          continue; // This project does not have this parameter
+        }
+        values.add(value);
+        key.add(value.getName());
+      }
+      values = Collections.unmodifiableList(values);
+      List<ParameterValue> existing = shared.putIfAbsent(key, values);
+      plan.add(existing != null ? existing : values);
+    }
+    return Collections.unmodifiableList(plan);
+  }
+
+  /**
+   * Digests the master build's file parameters up front, so that
+   * sub-builds scheduled later do not wait for them.
+   */
+  public void digestFiles() {
+    for (ParametersAction action : actions) {
+      for (ParameterValue value : action.getParameters()) {
+        if (value instanceof FileParameterValue) {
+          getDigest(getFile(value));
+        }
+      }
+    }
+  }
+
+  private PropagatedFileParameterValue newFileValue(FileParameterValue value) {
+    File file = getFile(value);
+    return new PropagatedFileParameterValue(
+        value.getName(), file, value.getOriginalFileName(), getDigest(file));
+  }
+
+  private File getFile(ParameterValue value) {
+    return new File(
+        masterBuild.getRootDir(), "fileParameters/" + value.getName());
+  }
+
+  /**
+   * @return the MD5 digest of {@code file}, or {@code null} if it cannot be
+   *     read, in which case the file is copied to sub-builds as it is
+   */
+  private String getDigest(File file) {
+    String digest = digests.get(file.getPath());
+    if (digest == null && file.isFile()) {
+      try {
+        digest = Util.getDigestOf(file);
+        digests.putIfAbsent(file.getPath(), digest);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to digest " + file, e);
+      }
+    }
+    return digest;
+  }
+}
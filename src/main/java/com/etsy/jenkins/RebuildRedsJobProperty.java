@@ -1,35 +1,78 @@
 package com.etsy.jenkins;
 
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.Descriptor;
 import hudson.model.Job;
 import hudson.model.JobProperty;
 import hudson.model.JobPropertyDescriptor;
+import hudson.model.Result;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 
 import net.sf.json.JSONObject;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 public class RebuildRedsJobProperty extends JobProperty<MasterProject> {
 
   private int maxRetries;
+  // Lines of "sub-project=limit" overriding maxRetries.
+  private String retryLimits;
+  // Comma separated results to retry; blank for any worse than SUCCESS.
+  private String retryOn;
+  private String logPattern;
+  private int backoffSeconds;
+  private int minFlakiness;
 
-  @DataBoundConstructor
   public RebuildRedsJobProperty(int maxRetries) {
+    this(maxRetries, null, null, null, 0, 0);
+  }
+
+  @DataBoundConstructor
+  public RebuildRedsJobProperty(
+      int maxRetries,
+      String retryLimits,
+      String retryOn,
+      String logPattern,
+      int backoffSeconds,
+      int minFlakiness) {
     this.maxRetries = maxRetries;
+    this.retryLimits = Util.fixEmptyAndTrim(retryLimits);
+    this.retryOn = Util.fixEmptyAndTrim(retryOn);
+    this.logPattern = Util.fixEmptyAndTrim(logPattern);
+    this.backoffSeconds = backoffSeconds;
+    this.minFlakiness = minFlakiness;
   }
 
   @Override
   public boolean prebuild(AbstractBuild build, BuildListener listener) {
+    MasterBuild masterBuild = (MasterBuild) build;
     RebuildRedsAction action = build.getAction(RebuildRedsAction.class);
     if (action != null) {
-      ((MasterBuild) build).setMaxRetries(action.getMaxRetries());
+      masterBuild.setMaxRetries(action.getMaxRetries());
     } else {
-      ((MasterBuild) build).setMaxRetries(this.maxRetries);
+      masterBuild.setMaxRetries(this.maxRetries);
     }
+    masterBuild.setRetryPolicy(
+        new DefaultRetryPolicy(
+            masterBuild.getMaxRetries(),
+            parseRetryLimits(this.retryLimits),
+            parseResults(this.retryOn),
+            this.logPattern == null ? null : Pattern.compile(this.logPattern),
+            TimeUnit.SECONDS.toMillis(this.backoffSeconds),
+            this.minFlakiness / 100.0));
     return true;
   }
 
@@ -37,6 +80,60 @@ public class RebuildRedsJobProperty extends JobProperty<MasterProject> {
      return this.maxRetries;
   }
 
+  public String getRetryLimits() {
+     return this.retryLimits;
+  }
+
+  public String getRetryOn() {
+     return this.retryOn;
+  }
+
+  public String getLogPattern() {
+     return this.logPattern;
+  }
+
+  public int getBackoffSeconds() {
+     return this.backoffSeconds;
+  }
+
+  public int getMinFlakiness() {
+     return this.minFlakiness;
+  }
+
+  private static Map<String, Integer> parseRetryLimits(String retryLimits) {
+    Map<String, Integer> limits = Maps.<String, Integer>newHashMap();
+    if (retryLimits == null) {
+      return limits;
+    }
+    for (String line : retryLimits.split("\\r?\\n")) {
+      int separator = line.lastIndexOf('=');
+      if (separator > 0) {
+        limits.put(
+            line.substring(0, separator).trim(),
+            Integer.parseInt(line.substring(separator + 1).trim()));
+      }
+    }
+    return limits;
+  }
+
+  private static Set<Result> parseResults(String retryOn) {
+    Set<Result> results = Sets.<Result>newHashSet();
+    if (retryOn == null) {
+      return results;
+    }
+    StringTokenizer tokens = new StringTokenizer(retryOn, ", ");
+    while (tokens.hasMoreTokens()) {
+      String token = tokens.nextToken();
+      // fromString() falls back to FAILURE for names it does not know.
+      Result result = Result.fromString(token);
+      if (!result.toString().equalsIgnoreCase(token)) {
+        throw new IllegalArgumentException("Unknown result: " + token);
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
   @Override
   public JobPropertyDescriptor getDescriptor() {
     return DESCRIPTOR;
@@ -66,7 +163,37 @@ public class RebuildRedsJobProperty extends JobProperty<MasterProject> {
         return null;
       }
       int maxRetries = Integer.parseInt(property.getString("maxRetries"));
-      return new RebuildRedsJobProperty(maxRetries);
+      String retryLimits = property.optString("retryLimits");
+      String logPattern = property.optString("logPattern");
+      try {
+        parseRetryLimits(Util.fixEmptyAndTrim(retryLimits));
+      } catch (NumberFormatException e) {
+        throw new Descriptor.FormException(
+            "Retry limits must be lines of sub-project=limit", "retryLimits");
+      }
+      String retryOn = property.optString("retryOn");
+      try {
+        parseResults(retryOn);
+      } catch (IllegalArgumentException e) {
+        throw new Descriptor.FormException(
+            e.getMessage() + "; expected results such as FAILURE, UNSTABLE",
+            "retryOn");
+      }
+      if (Util.fixEmptyAndTrim(logPattern) != null) {
+        try {
+          Pattern.compile(logPattern.trim());
+        } catch (PatternSyntaxException e) {
+          throw new Descriptor.FormException(
+              "Invalid log pattern: " + e.getMessage(), "logPattern");
+        }
+      }
+      return new RebuildRedsJobProperty(
+          maxRetries,
+          retryLimits,
+          retryOn,
+          logPattern,
+          property.optInt("backoffSeconds"),
+          property.optInt("minFlakiness"));
     }
   }
 }
@@ -1,7 +1,5 @@
 package com.etsy.jenkins;
 
-import com.etsy.jenkins.finder.BuildFinder;
-
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Cause;
@@ -15,6 +13,10 @@ import hudson.model.PermalinkProjectAction.Permalink;
 import hudson.model.Run;
 import hudson.model.queue.QueueTaskFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import jenkins.model.PeepholePermalink;
 import org.apache.commons.io.output.NullOutputStream;
 
@@ -27,12 +29,15 @@ import jenkins.plugins.slack.ActiveNotifier;
 import jenkins.plugins.slack.SlackService;
 
 /**
- * A Runnable that watches a rebuilt sub-job from start to finish.
+ * A watch that follows a rebuilt sub-job from start to finish.
  *
  * It updates the parent (MasterBuild) job's state appropriately at the start
  * and end of sub-job execution.
  */
-public class RebuildWatcher implements Runnable {
+public class RebuildWatcher implements SubBuildMonitor.Watch {
+
+  private static final Logger LOGGER =
+      Logger.getLogger(RebuildWatcher.class.getName());
 
   public static interface Factory {
     RebuildWatcher create(
@@ -42,8 +47,7 @@ public class RebuildWatcher implements Runnable {
         QueueTaskFuture<?> buildFuture);
   }
 
-  private final BuildFinder buildFinder;
-  private final long pingTime;
+  private final Executor executor;
 
   private final MasterBuild masterBuild;
   private final AbstractProject project;
@@ -51,40 +55,63 @@ public class RebuildWatcher implements Runnable {
   private final QueueTaskFuture<?> buildFuture;
   @Inject static Hudson hudson;
 
+  private AbstractBuild build;
+
   @Inject
   public RebuildWatcher(
        @Assisted MasterBuild masterBuild,
        @Assisted AbstractProject project,
        @Assisted Cause cause,
        @Assisted QueueTaskFuture<?> buildFuture,
-       BuildFinder buildFinder,
-       @MasterProject.PingTime long pingTime) {
+       Executor executor) {
     this.masterBuild = masterBuild;
     this.project = project;
     this.cause = cause;
     this.buildFuture = buildFuture;
 
-    this.buildFinder = buildFinder;
-    this.pingTime = pingTime;
+    this.executor = executor;
   }
 
-  public void run() {
-    AbstractBuild build = null;
-    do {
-      build = buildFinder.findBuild(project, cause);
-      rest();
-    } while(build == null);
-
-    masterBuild.addSubBuild(project.getDisplayName(), build.getNumber());
-
-    try {
-      this.buildFuture.get();
-    } catch (InterruptedException ex) {
-      throw new RuntimeException(ex);
-    } catch (ExecutionException ex) {
-      throw new RuntimeException(ex);
+  public boolean check(boolean tick) {
+    if (build == null) {
+      Future<?> startCondition = buildFuture.getStartCondition();
+      if (buildFuture.isCancelled() || startCondition.isCancelled()) {
+        return true; // Removed from the queue before it started.
+      }
+      if (!startCondition.isDone()) {
+        return false;
+      }
+      try {
+        // Bind the build as soon as it leaves the queue.
+        build = (AbstractBuild) startCondition.get();
+      } catch (InterruptedException e) {
+        LOGGER.log(Level.WARNING,
+            "Interrupted waiting for a rebuild of " + project.getFullName(), e);
+        return true;
+      } catch (ExecutionException e) {
+        // It never started, so there is nothing left to follow.
+        LOGGER.log(Level.WARNING,
+            "Rebuild of " + project.getFullName() + " failed to start",
+            e.getCause());
+        return true;
+      }
+      masterBuild.addSubBuild(project.getFullName(), build.getNumber());
     }
 
+    if (build.isBuilding()) {
+      return false;
+    }
+
+    // Notifications may block on the network; keep them off the timer.
+    executor.execute(new Runnable() {
+      public void run() {
+        onRebuildCompleted();
+      }
+    });
+    return true;
+  }
+
+  private void onRebuildCompleted() {
     // Invoke SlackNotifier when rebuilds result in a successful build
     this.rebuildNotify();
 
@@ -116,12 +143,6 @@ public class RebuildWatcher implements Runnable {
     }
   }
 
-  private void rest() {
-    try {
-      Thread.sleep(pingTime);
-    } catch (InterruptedException ignore) {}
-  }
-
   /**
    * A PeepholePermalink that delegates to a given PeepholePeermalink and
    * exposes the @{code updateCache} method.
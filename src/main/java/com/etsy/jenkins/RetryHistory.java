@@ -0,0 +1,61 @@
+package com.etsy.jenkins;
+
+/**
+ * Past retry outcomes of a sub-project, persisted by
+ * {@link RetryHistoryStore}.
+ */
+public class RetryHistory {
+
+  // Counts are halved past this many retries so that old outcomes fade.
+  private static final int MAX_RETRIES = 100;
+  // Retries refused for low flakiness before one is let through anyway.
+  /*package*/ static final int PROBE_INTERVAL = 10;
+
+  private int retries;
+  private int recoveries;
+  private int refusals;
+
+  /**
+   * @return the estimated chance, from 0 to 1, that a retry of a failed
+   *     build of this sub-project succeeds
+   */
+  public synchronized double getFlakiness() {
+    // Smoothed so that a project without history counts as 50% flaky.
+    return (recoveries + 1.0) / (retries + 2.0);
+  }
+
+  public synchronized int getRetries() {
+    return retries;
+  }
+
+  public synchronized int getRecoveries() {
+    return recoveries;
+  }
+
+  /*package*/ synchronized void record(boolean recovered) {
+    retries++;
+    if (recovered) {
+      recoveries++;
+    }
+    if (retries > MAX_RETRIES) {
+      retries /= 2;
+      recoveries /= 2;
+    }
+  }
+
+  /**
+   * Counts a retry refused because this sub-project is not flaky enough.
+   * Every so often, and always while there is no history, the retry is let
+   * through instead, so that the flakiness keeps being measured and a
+   * sub-project that has become flaky can climb back over the threshold.
+   *
+   * @return whether to retry anyway
+   */
+  /*package*/ synchronized boolean probe() {
+    if (retries == 0 || ++refusals >= PROBE_INTERVAL) {
+      refusals = 0;
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,75 @@
+package com.etsy.jenkins;
+
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the {@link RetryHistory} of each sub-project in a file in the
+ * sub-project's directory.
+ */
+@Singleton
+/*package*/ class RetryHistoryStore {
+
+  private static final Logger LOGGER =
+      Logger.getLogger(RetryHistoryStore.class.getName());
+
+  private static final String FILE_NAME = "com.etsy.jenkins.RetryHistory.xml";
+
+  private final ConcurrentMap<String, RetryHistory> histories =
+      Maps.<String, RetryHistory>newConcurrentMap();
+
+  public RetryHistory get(AbstractProject project) {
+    String key = project.getFullName();
+    RetryHistory history = histories.get(key);
+    if (history == null) {
+      RetryHistory loaded = load(project);
+      history = histories.putIfAbsent(key, loaded);
+      if (history == null) {
+        history = loaded;
+      }
+    }
+    return history;
+  }
+
+  /**
+   * Records the outcome of a retry of {@code project}.
+   */
+  public void record(AbstractProject project, boolean recovered) {
+    RetryHistory history = get(project);
+    history.record(recovered);
+    try {
+      getFile(project).write(history);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING,
+          "Failed to save retry history of " + project.getFullName(), e);
+    }
+  }
+
+  private RetryHistory load(AbstractProject project) {
+    XmlFile file = getFile(project);
+    if (file.exists()) {
+      try {
+        return (RetryHistory) file.read();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING,
+            "Failed to load retry history of " + project.getFullName(), e);
+      }
+    }
+    return new RetryHistory();
+  }
+
+  private static XmlFile getFile(AbstractProject project) {
+    return new XmlFile(
+        Hudson.XSTREAM, new File(project.getRootDir(), FILE_NAME));
+  }
+}
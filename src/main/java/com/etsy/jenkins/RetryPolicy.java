@@ -0,0 +1,18 @@
+package com.etsy.jenkins;
+
+import hudson.model.AbstractBuild;
+
+/**
+ * Decides whether, and how soon, a finished sub-build is retried.
+ */
+public interface RetryPolicy {
+
+  /**
+   * @param build the finished sub-build
+   * @param retries how many times its sub-project has been retried so far
+   * @param history the sub-project's past retry outcomes
+   * @return the number of milliseconds to wait before retrying, or a
+   *     negative number not to retry
+   */
+  long getRetryDelay(AbstractBuild build, int retries, RetryHistory history);
+}
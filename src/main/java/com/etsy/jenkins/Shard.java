@@ -0,0 +1,78 @@
+package com.etsy.jenkins;
+
+import hudson.model.AbstractProject;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * One of the builds a sub-project is split into by sharding. A sub-project
+ * that is not sharded is its own single shard.
+ */
+public final class Shard {
+
+  private final AbstractProject project;
+  private final int index;
+  private final int count;
+
+  public Shard(AbstractProject project, int index, int count) {
+    this.project = project;
+    this.index = index;
+    this.count = count;
+  }
+
+  /**
+   * @return the {@code count} shards of {@code project}
+   */
+  public static List<Shard> of(AbstractProject project, int count) {
+    List<Shard> shards = Lists.<Shard>newArrayList();
+    for (int index = 0; index < count; index++) {
+      shards.add(new Shard(project, index, count));
+    }
+    return shards;
+  }
+
+  public AbstractProject getProject() {
+    return project;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * @return the cause to build this shard with for {@code masterBuild}
+   */
+  public MasterBuildCause newCause(MasterBuild masterBuild, int rebuildNumber) {
+    return new MasterBuildCause(masterBuild, rebuildNumber, index, count);
+  }
+
+  public String getDisplayName() {
+    if (count <= 1) {
+      return project.getDisplayName();
+    }
+    return String.format(
+        "%s [shard %d/%d]", project.getDisplayName(), index + 1, count);
+  }
+
+  @Override
+  public boolean equals(Object rhs) {
+    if (!(rhs instanceof Shard)) {
+      return false;
+    }
+    Shard shard = (Shard) rhs;
+    return project.equals(shard.project)
+        && index == shard.index
+        && count == shard.count;
+  }
+
+  @Override
+  public int hashCode() {
+    return (project.hashCode() * 31 + index) * 31 + count;
+  }
+}
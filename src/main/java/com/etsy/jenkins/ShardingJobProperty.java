@@ -0,0 +1,214 @@
+package com.etsy.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import net.sf.json.JSONObject;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits sub-projects into shards that build in parallel, each with the
+ * {@code SHARD_INDEX} and {@code SHARD_COUNT} parameters.
+ *
+ * Each line of the table names a sub-project, a colon and either a number
+ * of shards or {@code auto}, e.g. {@code integration-tests: auto}. With
+ * {@code auto} the count is chosen from the duration of the sub-project's
+ * last successful shard so that each shard takes about the budget.
+ */
+public class ShardingJobProperty extends JobProperty<MasterProject> {
+
+  // Shard count standing for 'auto' in the parsed table.
+  private static final int AUTO = 0;
+
+  private final String shards;
+  private final int budgetMinutes;
+  private final int maxShards;
+
+  private transient Map<String, Integer> table;
+
+  @DataBoundConstructor
+  public ShardingJobProperty(String shards, int budgetMinutes, int maxShards) {
+    this.shards = shards;
+    this.budgetMinutes = budgetMinutes;
+    this.maxShards = maxShards;
+  }
+
+  @Override
+  public boolean prebuild(AbstractBuild build, BuildListener listener) {
+    MasterBuild masterBuild = (MasterBuild) build;
+    Map<String, Integer> shardCounts = Maps.<String, Integer>newHashMap();
+    for (AbstractProject subProject : masterBuild.getSubProjects()) {
+      Integer count = getTable().get(subProject.getName());
+      if (count == null) {
+        continue;
+      }
+      if (count == AUTO) {
+        count = getAutoShardCount(subProject);
+      }
+      if (count > 1) {
+        listener.getLogger().printf("Sharding %s into %d builds\n",
+            subProject.getDisplayName(), count);
+        if (!subProject.isConcurrentBuild()) {
+          listener.getLogger().printf(
+              "Warning: %s does not allow concurrent builds, so its shards"
+              + " will build one at a time\n",
+              subProject.getDisplayName());
+        }
+      }
+      shardCounts.put(subProject.getName(), count);
+    }
+    masterBuild.setShardCounts(shardCounts);
+    return true;
+  }
+
+  /**
+   * @return the number of shards that brings each shard of
+   *     {@code subProject} closest to the budget, judging by its last
+   *     successful build
+   */
+  private int getAutoShardCount(AbstractProject subProject) {
+    AbstractBuild last = subProject.getLastSuccessfulBuild();
+    long budget = TimeUnit.MINUTES.toMillis(budgetMinutes);
+    if (last == null || budget <= 0) {
+      return 1;
+    }
+    // The last build ran one of possibly several shards.
+    int lastCount = 1;
+    MasterBuildCause cause =
+        (MasterBuildCause) last.getCause(MasterBuildCause.class);
+    if (cause != null) {
+      lastCount = cause.getShardCount();
+    }
+    return getAutoShardCount(
+        last.getDuration(), lastCount, budget, maxShards);
+  }
+
+  /**
+   * @param lastDuration the duration of one shard of the last build
+   * @param lastCount the number of shards the last build was split into
+   * @param budget the duration each shard should take
+   * @param maxShards the most shards to split into, or 0 for no limit
+   * @return the number of shards that each take at most about the budget
+   */
+  /*package*/ static int getAutoShardCount(
+      long lastDuration, int lastCount, long budget, int maxShards) {
+    long total = lastDuration * lastCount;
+    int count = (int) Math.min((total + budget - 1) / budget, Integer.MAX_VALUE);
+    return Math.max(1, maxShards > 0 ? Math.min(count, maxShards) : count);
+  }
+
+  public String getShards() {
+    return this.shards;
+  }
+
+  public int getBudgetMinutes() {
+    return this.budgetMinutes;
+  }
+
+  public int getMaxShards() {
+    return this.maxShards;
+  }
+
+  private synchronized Map<String, Integer> getTable() {
+    if (table == null) {
+      table = parse(shards == null ? "" : shards);
+    }
+    return table;
+  }
+
+  /*package*/ static Map<String, Integer> parse(String shards) {
+    Map<String, Integer> table = Maps.<String, Integer>newHashMap();
+    for (String line : shards.split("\\r?\\n")) {
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new IllegalArgumentException(
+            "Expected 'sub-project: shards': " + line);
+      }
+      String project = line.substring(0, colon).trim();
+      String count = line.substring(colon + 1).trim();
+      if ("auto".equals(count)) {
+        table.put(project, AUTO);
+        continue;
+      }
+      try {
+        int parsed = Integer.parseInt(count);
+        if (parsed < 1) {
+          throw new NumberFormatException();
+        }
+        table.put(project, parsed);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(
+            "Expected a positive number of shards or 'auto': " + line);
+      }
+    }
+    return table;
+  }
+
+  @Override
+  public JobPropertyDescriptor getDescriptor() {
+    return DESCRIPTOR;
+  }
+
+  @Extension
+  public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+  public static class DescriptorImpl extends JobPropertyDescriptor {
+
+    @Override
+    public String getDisplayName() {
+      return "Shard Sub-Projects";
+    }
+
+    @Override
+    public boolean isApplicable(Class<? extends Job> jobType) {
+        return jobType.equals(MasterProject.class);
+    }
+
+    @Override
+    public JobProperty<?> newInstance(
+        StaplerRequest req,
+        JSONObject formData)
+        throws Descriptor.FormException {
+      JSONObject property = formData.optJSONObject("shardingJobProperty");
+      if (property == null) {
+        return null;
+      }
+      String shards = property.getString("shards");
+      try {
+        parse(shards);
+      } catch (IllegalArgumentException e) {
+        throw new Descriptor.FormException(e.getMessage(), "shards");
+      }
+      int budgetMinutes = parseNumber(property, "budgetMinutes");
+      int maxShards = parseNumber(property, "maxShards");
+      return new ShardingJobProperty(shards, budgetMinutes, maxShards);
+    }
+
+    private static int parseNumber(JSONObject property, String field)
+        throws Descriptor.FormException {
+      String value = property.getString(field);
+      try {
+        return Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+        throw new Descriptor.FormException(
+            "Expected a number: " + value, field);
+      }
+    }
+  }
+}
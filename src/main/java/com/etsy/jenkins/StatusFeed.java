@@ -0,0 +1,85 @@
+package com.etsy.jenkins;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Versioned record of which sub-projects of a master build have changed.
+ *
+ * Every change to a sub-project's builds bumps the version and stamps the
+ * sub-project with it, so any number of viewers can ask for what changed
+ * since the version they last saw without keeping state per viewer.
+ */
+/*package*/ class StatusFeed {
+
+  // Tells versions apart from those of a feed before a restart.
+  private final long epoch = System.currentTimeMillis();
+  private long version;
+  // Sub-project name to the version it last changed at.
+  private final Map<String, Long> versions = Maps.<String, Long>newHashMap();
+
+  /**
+   * Records a change to the builds of {@code projectName} and wakes any
+   * waiting viewers.
+   */
+  public synchronized void publish(String projectName) {
+    versions.put(projectName, ++version);
+    notifyAll();
+  }
+
+  public synchronized long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * @return an entity tag for the state at {@code version}, as rendered
+   *     for the given {@code since} version, or -1 for all of it
+   */
+  public String getETag(long version, long since) {
+    return "\"" + epoch + "-" + version
+        + (since >= 0 ? "-" + since : "") + "\"";
+  }
+
+  /**
+   * @param projectNames every sub-project, all of which have changed as far
+   *     as a viewer whose {@code since} is from before a restart knows;
+   *     only the ones published since the restart are stamped here
+   * @return the sub-projects that changed after {@code since}
+   */
+  public synchronized Set<String> getChangedSince(
+      long since, Collection<String> projectNames) {
+    if (since > version) {
+      Set<String> all = Sets.<String>newHashSet(projectNames);
+      all.addAll(versions.keySet());
+      return all;
+    }
+    Set<String> changed = Sets.<String>newHashSet();
+    for (Map.Entry<String, Long> entry : versions.entrySet()) {
+      if (entry.getValue() > since) {
+        changed.add(entry.getKey());
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Waits up to {@code timeout} milliseconds for a change after
+   * {@code since}.
+   *
+   * @return the current version
+   */
+  public synchronized long await(long since, long timeout)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    long remaining = timeout;
+    while (version == since && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return this.version;
+  }
+}
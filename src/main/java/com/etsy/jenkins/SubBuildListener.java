@@ -0,0 +1,120 @@
+package com.etsy.jenkins;
+
+import com.etsy.jenkins.finder.SubBuildIndex;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Cause;
+import hudson.model.Hudson;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueListener;
+
+import com.google.inject.Inject;
+
+/**
+ * Forwards start and completion of sub-builds to the {@link SubBuildMonitor}
+ * so that watchers react as soon as a sub-build changes state instead of
+ * waiting for their next poll.
+ *
+ * Completion is reported from {@code onFinalized} rather than
+ * {@code onCompleted}, since a run still reports {@code isBuilding()} until it
+ * has been finalized.
+ */
+@Extension
+public class SubBuildListener extends RunListener<AbstractBuild> {
+
+  @Inject static Hudson hudson;
+  @Inject static SubBuildMonitor monitor;
+  @Inject static SubBuildIndex subBuildIndex;
+  @Inject static BuildSaver buildSaver;
+
+  public SubBuildListener() {
+    super(AbstractBuild.class);
+  }
+
+  @Override
+  public void onStarted(AbstractBuild build, TaskListener listener) {
+    if (subBuildIndex != null) {
+      subBuildIndex.add(build);
+    }
+    fire(build);
+  }
+
+  @Override
+  public void onFinalized(AbstractBuild build) {
+    for (Object cause : build.getCauses()) {
+      if (cause instanceof MasterBuildCause) {
+        MasterBuild masterBuild = findMasterBuild((MasterBuildCause) cause);
+        if (masterBuild != null) {
+          masterBuild.onSubBuildCompleted(build);
+        }
+      }
+    }
+    fire(build);
+  }
+
+  @Override
+  public void onDeleted(AbstractBuild build) {
+    if (build instanceof MasterBuild && buildSaver != null) {
+      buildSaver.discard((MasterBuild) build);
+    }
+    if (subBuildIndex != null) {
+      subBuildIndex.remove(build);
+    }
+  }
+
+  private void fire(AbstractBuild build) {
+    if (monitor == null) {
+      return;
+    }
+    // A build carries several master causes when queue items were merged.
+    for (Object cause : build.getCauses()) {
+      if (cause instanceof MasterBuildCause) {
+        monitor.fire((MasterBuildCause) cause, build);
+      }
+    }
+  }
+
+  private static MasterBuild findMasterBuild(MasterBuildCause cause) {
+    if (hudson == null) {
+      return null;
+    }
+    MasterProject project = hudson.getItemByFullName(
+        cause.getUpstreamProject(), MasterProject.class);
+    if (project == null) {
+      return null;
+    }
+    return project.getBuildByNumber(cause.getUpstreamBuild());
+  }
+
+  /**
+   * Wakes watchers when a sub-build leaves the queue without starting,
+   * e.g. because it was cancelled.
+   */
+  @Extension
+  public static class QueueListenerImpl extends QueueListener {
+
+    @Override
+    public void onLeft(Queue.LeftItem item) {
+      if (monitor == null) {
+        return;
+      }
+      Queue.Executable executable = item.getExecutable();
+      for (Cause cause : item.getCauses()) {
+        if (!(cause instanceof MasterBuildCause)) {
+          continue;
+        }
+        if (executable instanceof AbstractBuild) {
+          MasterBuild masterBuild = findMasterBuild((MasterBuildCause) cause);
+          if (masterBuild != null) {
+            masterBuild.onSubBuildLeftQueue((AbstractBuild) executable,
+                System.currentTimeMillis() - item.getInQueueSince());
+          }
+        }
+        monitor.fire((MasterBuildCause) cause, null);
+      }
+    }
+  }
+}
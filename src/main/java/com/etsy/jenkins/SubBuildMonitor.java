@@ -0,0 +1,212 @@
+package com.etsy.jenkins;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives every active master build and rebuild watcher from one timer.
+ *
+ * Watchers are lightweight state machines: the monitor advances a watch
+ * whenever a sub-build of its master build starts, finishes or leaves the
+ * queue (reported by {@link SubBuildListener}), and on a slow safety net
+ * tick. All checks run on the single timer thread, so a watch never runs
+ * concurrently with itself and no thread is parked per master build.
+ *
+ * Checks must not block, or every master build stalls with them: a watch
+ * hands disk and log work, and anything that takes the queue's or a
+ * build's locks such as scheduling, cancelling or interrupting a build, to
+ * the worker executor and asks to be woken with {@link #wakeAfter} once it
+ * is done.
+ */
+@Singleton
+/*package*/ class SubBuildMonitor {
+
+  /**
+   * A state machine advanced by the monitor.
+   */
+  /*package*/ static interface Watch {
+
+    /**
+     * Advances the watch.
+     *
+     * @param tick whether this check is a safety net tick rather than a
+     *     reaction to a sub-build event
+     * @return whether the watch is finished and can be dropped
+     */
+    boolean check(boolean tick);
+  }
+
+  private static final Logger LOGGER =
+      Logger.getLogger(SubBuildMonitor.class.getName());
+
+  private final ScheduledExecutorService timer;
+
+  private final ConcurrentMap<String, Set<Entry>> watches =
+      Maps.<String, Set<Entry>>newConcurrentMap();
+
+  @Inject
+  public SubBuildMonitor(
+      ScheduledExecutorService timer,
+      @MasterProject.SafetyNetTime long safetyNetTime) {
+    this.timer = timer;
+    timer.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        tick();
+      }
+    }, safetyNetTime, safetyNetTime, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts advancing {@code watch} on events of {@code masterBuild}'s
+   * sub-builds. The watch is checked right away.
+   */
+  public void watch(MasterBuild masterBuild, Watch watch) {
+    watch(keyOf(masterBuild), watch);
+  }
+
+  /*package*/ void watch(String key, Watch watch) {
+    Set<Entry> set = watches.get(key);
+    if (set == null) {
+      Set<Entry> newSet = new CopyOnWriteArraySet<Entry>();
+      set = watches.putIfAbsent(key, newSet);
+      if (set == null) {
+        set = newSet;
+      }
+    }
+    Entry entry = new Entry(key, watch);
+    set.add(entry);
+    schedule(entry, true);
+  }
+
+  /**
+   * Stops advancing {@code watch}.
+   */
+  public void unwatch(MasterBuild masterBuild, Watch watch) {
+    Set<Entry> set = watches.get(keyOf(masterBuild));
+    if (set == null) {
+      return;
+    }
+    for (Entry entry : set) {
+      if (entry.watch == watch) {
+        remove(entry);
+      }
+    }
+  }
+
+  /**
+   * Checks {@code watch} again after {@code delay} milliseconds, e.g. when
+   * it has deferred work until then.
+   */
+  public void wakeAfter(MasterBuild masterBuild, Watch watch, long delay) {
+    wakeAfter(keyOf(masterBuild), watch, delay);
+  }
+
+  /*package*/ void wakeAfter(String key, Watch watch, long delay) {
+    Set<Entry> set = watches.get(key);
+    if (set == null) {
+      return;
+    }
+    for (final Entry entry : set) {
+      if (entry.watch == watch) {
+        timer.schedule(new Runnable() {
+          public void run() {
+            check(entry, false);
+          }
+        }, delay, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Notifies the watches of the cause's master build that {@code build}
+   * (which may be {@code null} for queue events) has changed state.
+   */
+  public void fire(MasterBuildCause cause, AbstractBuild build) {
+    Set<Entry> set = watches.get(keyOf(cause));
+    if (set == null) {
+      return;
+    }
+    for (Entry entry : set) {
+      schedule(entry, false);
+    }
+  }
+
+  private void tick() {
+    for (Set<Entry> set : watches.values()) {
+      for (Entry entry : set) {
+        check(entry, true);
+      }
+    }
+  }
+
+  private void schedule(final Entry entry, final boolean tick) {
+    // Coalesce bursts of events into one check.
+    if (entry.scheduled.compareAndSet(false, true)) {
+      timer.execute(new Runnable() {
+        public void run() {
+          entry.scheduled.set(false);
+          check(entry, tick);
+        }
+      });
+    }
+  }
+
+  private void check(Entry entry, boolean tick) {
+    if (entry.removed) {
+      return;
+    }
+    try {
+      if (entry.watch.check(tick)) {
+        remove(entry);
+      }
+    } catch (RuntimeException e) {
+      // Keep the watch; the next event or tick checks it again.
+      LOGGER.log(Level.WARNING, "Failed to check " + entry.key, e);
+    }
+  }
+
+  private void remove(Entry entry) {
+    entry.removed = true;
+    Set<Entry> set = watches.get(entry.key);
+    if (set != null) {
+      set.remove(entry);
+      if (set.isEmpty()) {
+        watches.remove(entry.key, set);
+      }
+    }
+  }
+
+  /*package*/ static String keyOf(Run<?, ?> masterBuild) {
+    return masterBuild.getParent().getFullName() + "#" + masterBuild.getNumber();
+  }
+
+  /*package*/ static String keyOf(MasterBuildCause cause) {
+    return cause.getUpstreamProject() + "#" + cause.getUpstreamBuild();
+  }
+
+  private static final class Entry {
+
+    private final String key;
+    private final Watch watch;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean removed = false;
+
+    private Entry(String key, Watch watch) {
+      this.key = key;
+      this.watch = watch;
+    }
+  }
+}
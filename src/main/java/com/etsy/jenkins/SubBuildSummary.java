@@ -0,0 +1,73 @@
+package com.etsy.jenkins;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+
+/**
+ * What a master build remembers about one of its sub-builds, so that its
+ * status can be reported without loading the build.
+ */
+@ExportedBean
+public class SubBuildSummary implements Serializable {
+
+  private final int number;
+  private volatile int shardIndex;
+  // Null until the build has finished.
+  private volatile Result result;
+  private volatile long duration;
+  private volatile long queueWait = -1;
+
+  public SubBuildSummary(int number) {
+    this.number = number;
+  }
+
+  /*package*/ void setQueueWait(long queueWait) {
+    this.queueWait = queueWait;
+  }
+
+  /*package*/ void onCompleted(AbstractBuild build) {
+    MasterBuildCause cause =
+        (MasterBuildCause) build.getCause(MasterBuildCause.class);
+    if (cause != null) {
+      this.shardIndex = cause.getShardIndex();
+    }
+    this.result = build.getResult();
+    this.duration = build.getDuration();
+  }
+
+  @Exported(visibility=3)
+  public int getNumber() {
+    return this.number;
+  }
+
+  @Exported(visibility=3)
+  public int getShardIndex() {
+    return this.shardIndex;
+  }
+
+  /**
+   * @return the result, or {@code null} while the build is running
+   */
+  @Exported(visibility=3)
+  public Result getResult() {
+    return this.result;
+  }
+
+  @Exported(visibility=3)
+  public long getDuration() {
+    return this.duration;
+  }
+
+  /**
+   * @return how long the build waited in the queue, or -1 if unknown
+   */
+  @Exported(visibility=3)
+  public long getQueueWait() {
+    return this.queueWait;
+  }
+}
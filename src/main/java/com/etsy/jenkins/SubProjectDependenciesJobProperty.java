@@ -0,0 +1,88 @@
+package com.etsy.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Descriptor;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Runs sub-projects as a dependency graph: each starts once its
+ * prerequisites in the same master build have passed, and those on the
+ * critical path are scheduled first.
+ */
+public class SubProjectDependenciesJobProperty
+extends JobProperty<MasterProject> {
+
+  private final String dependencies;
+
+  private transient SubProjectGraph graph;
+
+  @DataBoundConstructor
+  public SubProjectDependenciesJobProperty(String dependencies) {
+    this.dependencies = dependencies;
+  }
+
+  @Override
+  public boolean prebuild(AbstractBuild build, BuildListener listener) {
+    ((MasterBuild) build).setDependencies(getGraph());
+    return true;
+  }
+
+  public String getDependencies() {
+    return this.dependencies;
+  }
+
+  private synchronized SubProjectGraph getGraph() {
+    if (graph == null) {
+      graph = new SubProjectGraph(dependencies == null ? "" : dependencies);
+    }
+    return graph;
+  }
+
+  @Override
+  public JobPropertyDescriptor getDescriptor() {
+    return DESCRIPTOR;
+  }
+
+  @Extension
+  public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
+  public static class DescriptorImpl extends JobPropertyDescriptor {
+
+    @Override
+    public String getDisplayName() {
+      return "Sub-Project Dependencies";
+    }
+
+    @Override
+    public boolean isApplicable(Class<? extends Job> jobType) {
+        return jobType.equals(MasterProject.class);
+    }
+
+    @Override
+    public JobProperty<?> newInstance(
+        StaplerRequest req,
+        JSONObject formData)
+        throws Descriptor.FormException {
+      JSONObject property =
+          formData.optJSONObject("subProjectDependenciesJobProperty");
+      if (property == null) {
+        return null;
+      }
+      String dependencies = property.getString("dependencies");
+      try {
+        new SubProjectGraph(dependencies);
+      } catch (IllegalArgumentException e) {
+        throw new Descriptor.FormException(e.getMessage(), "dependencies");
+      }
+      return new SubProjectDependenciesJobProperty(dependencies);
+    }
+  }
+}
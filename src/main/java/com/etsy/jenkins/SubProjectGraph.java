@@ -0,0 +1,148 @@
+package com.etsy.jenkins;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Dependencies between the sub-projects of a master project.
+ *
+ * Each line of the table names a sub-project, a colon and the sub-projects
+ * it depends on, e.g. {@code integration-tests: build-app build-db}. Lines
+ * starting with {@code #} are comments. Cycles are rejected.
+ */
+/*package*/ class SubProjectGraph {
+
+  // Sub-project name to the names of its prerequisites.
+  private final Map<String, Set<String>> dependencies =
+      Maps.<String, Set<String>>newHashMap();
+
+  public SubProjectGraph(String table) {
+    for (String line : table.split("\\r?\\n")) {
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new IllegalArgumentException(
+            "Expected 'sub-project: dependencies': " + line);
+      }
+      String project = line.substring(0, colon).trim();
+      Set<String> prerequisites = dependencies.get(project);
+      if (prerequisites == null) {
+        prerequisites = Sets.<String>newHashSet();
+        dependencies.put(project, prerequisites);
+      }
+      StringTokenizer tokenizer =
+          new StringTokenizer(line.substring(colon + 1));
+      while (tokenizer.hasMoreTokens()) {
+        prerequisites.add(tokenizer.nextToken());
+      }
+    }
+    checkAcyclic();
+  }
+
+  /**
+   * @return the names of the sub-projects {@code project} depends on
+   */
+  public Set<String> getDependencies(String project) {
+    Set<String> prerequisites = dependencies.get(project);
+    return prerequisites == null
+        ? Collections.<String>emptySet() : prerequisites;
+  }
+
+  /**
+   * Computes, for each of the given sub-projects, the longest chain of
+   * estimated durations from its start to the end of the master build,
+   * counting only dependencies among the given sub-projects.
+   *
+   * @param durations estimated durations by sub-project name
+   */
+  public Map<String, Long> getCriticalPathLengths(Map<String, Long> durations) {
+    Map<String, Set<String>> dependents = Maps.<String, Set<String>>newHashMap();
+    for (String project : durations.keySet()) {
+      for (String prerequisite : getDependencies(project)) {
+        if (!durations.containsKey(prerequisite)) {
+          continue;
+        }
+        Set<String> set = dependents.get(prerequisite);
+        if (set == null) {
+          set = Sets.<String>newHashSet();
+          dependents.put(prerequisite, set);
+        }
+        set.add(project);
+      }
+    }
+    Map<String, Long> lengths = Maps.<String, Long>newHashMap();
+    for (String project : durations.keySet()) {
+      getCriticalPathLength(project, durations, dependents, lengths);
+    }
+    return lengths;
+  }
+
+  private static long getCriticalPathLength(
+      String project,
+      Map<String, Long> durations,
+      Map<String, Set<String>> dependents,
+      Map<String, Long> lengths) {
+    Long cached = lengths.get(project);
+    if (cached != null) {
+      return cached;
+    }
+    long longestDependent = 0;
+    Set<String> set = dependents.get(project);
+    if (set != null) {
+      for (String dependent : set) {
+        longestDependent = Math.max(longestDependent,
+            getCriticalPathLength(dependent, durations, dependents, lengths));
+      }
+    }
+    long length = durations.get(project) + longestDependent;
+    lengths.put(project, length);
+    return length;
+  }
+
+  private void checkAcyclic() {
+    Set<String> visited = Sets.<String>newHashSet();
+    for (String project : dependencies.keySet()) {
+      checkAcyclic(project, visited, Lists.<String>newArrayList());
+    }
+  }
+
+  private void checkAcyclic(
+      String project, Set<String> visited, List<String> path) {
+    int index = path.indexOf(project);
+    if (index >= 0) {
+      List<String> cycle = Lists.newArrayList(path.subList(index, path.size()));
+      cycle.add(project);
+      throw new IllegalArgumentException(
+          "Dependency cycle: " + joinCycle(cycle));
+    }
+    if (!visited.add(project)) {
+      return;
+    }
+    path.add(project);
+    for (String prerequisite : getDependencies(project)) {
+      checkAcyclic(prerequisite, visited, path);
+    }
+    path.remove(path.size() - 1);
+  }
+
+  private static String joinCycle(List<String> cycle) {
+    StringBuilder joined = new StringBuilder();
+    for (String project : cycle) {
+      if (joined.length() > 0) {
+        joined.append(" -> ");
+      }
+      joined.append(project);
+    }
+    return joined.toString();
+  }
+}
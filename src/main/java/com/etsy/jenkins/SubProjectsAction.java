@@ -45,12 +45,8 @@ public class SubProjectsAction implements Action {
   }
 
   public Set<AbstractProject> getSubProjects() {
-    Set<AbstractProject> projects = Sets.<AbstractProject>newHashSet();
-    for (String subProject : subProjects) {
-      AbstractProject project = projectFinder.findProject(subProject);
-      projects.add(project);
-    }
-    return projects;
+    return Sets.<AbstractProject>newHashSet(
+        projectFinder.findProjects(subProjects).values());
   }
 
 }
@@ -1,85 +1,407 @@
 package com.etsy.jenkins;
 
 import com.etsy.jenkins.finder.BuildFinder;
+import com.etsy.jenkins.finder.ProjectFinder;
 
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Result;
-import hudson.model.Hudson;
+import jenkins.model.CauseOfInterruption;
+import jenkins.model.InterruptedBuildAction;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 import java.io.Serializable;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
-/*package*/ class SubResult implements Serializable {
+@ExportedBean
+public class SubResult implements Serializable {
 
   @Inject static BuildFinder buildFinder;
+  @Inject static ProjectFinder projectFinder;
+
+  private static final int[] NO_BUILDS = new int[0];
 
   /*package*/ final String projectName;
-  /*package*/ final AbstractProject project;
-  /*package*/ final TreeSet<Integer> buildNumbers;
+  // Sorted build numbers; replaced, never modified, when a build is added.
+  private volatile int[] builds;
+  // When the sub-project was first scheduled in this master build, or 0.
+  private long scheduledTime;
+  // Summaries of the builds by number. Kept out of build.xml so that it
+  // does not grow with them; rebuilt from the builds after a restart.
+  private transient TreeMap<Integer, SubBuildSummary> summaries;
+
+  // Older records stored the build numbers as a boxed set; read only to
+  // migrate them in readResolve().
+  @Deprecated
+  private TreeSet<Integer> buildNumbers;
+
+  // Resolved lazily from projectName; never persisted.
+  private transient AbstractProject project;
+  private transient volatile Result result;
+  // Whether every shard that ran was aborted by fail-fast; decided with
+  // the result.
+  private transient volatile boolean discarded;
 
   public SubResult(String projectName) {
     this.projectName = projectName;
-    this.project = (AbstractProject) Hudson.getInstance().getItemMap().get(projectName);
-    this.buildNumbers = Sets.<Integer>newTreeSet();
+    this.builds = NO_BUILDS;
+    this.summaries = Maps.<Integer, SubBuildSummary>newTreeMap();
+  }
+
+  private Object readResolve() {
+    if (buildNumbers != null) {
+      int[] migrated = new int[buildNumbers.size()];
+      int i = 0;
+      for (Integer buildNumber : buildNumbers) {
+        migrated[i++] = buildNumber;
+      }
+      builds = migrated;
+      buildNumbers = null;
+    }
+    if (builds == null) {
+      builds = NO_BUILDS;
+    }
+    summaries = Maps.<Integer, SubBuildSummary>newTreeMap();
+    return this;
   }
 
+  @Exported(visibility=3, name="name")
   public String getProjectName() {
     return this.projectName;
   }
 
   public AbstractProject getProject() {
-    return this.project;
+    AbstractProject cached = this.project;
+    // The finder resolves by full name, so a project stays cached until it
+    // is renamed or moved away from projectName.
+    if (cached == null || !projectName.equals(cached.getFullName())) {
+      cached = projectFinder.findProject(projectName);
+      this.project = cached;
+    }
+    return cached;
+  }
+
+  public synchronized void addBuildNumber(int buildNumber) {
+    int[] current = this.builds;
+    int index = Arrays.binarySearch(current, buildNumber);
+    if (index < 0) {
+      int insertAt = -index - 1;
+      int[] updated = new int[current.length + 1];
+      System.arraycopy(current, 0, updated, 0, insertAt);
+      updated[insertAt] = buildNumber;
+      System.arraycopy(
+          current, insertAt, updated, insertAt + 1, current.length - insertAt);
+      this.builds = updated;
+    }
+    getSummary(buildNumber);
+    invalidate();
+  }
+
+  private synchronized SubBuildSummary getSummary(int buildNumber) {
+    SubBuildSummary summary = summaries.get(buildNumber);
+    if (summary == null) {
+      summary = new SubBuildSummary(buildNumber);
+      summaries.put(buildNumber, summary);
+    }
+    return summary;
+  }
+
+  /*package*/ synchronized void setQueueWait(int buildNumber, long queueWait) {
+    getSummary(buildNumber).setQueueWait(queueWait);
+  }
+
+  /*package*/ synchronized void onBuildCompleted(AbstractBuild build) {
+    getSummary(build.getNumber()).onCompleted(build);
+    invalidate();
   }
 
-  public void addBuildNumber(int buildNumber) {
-    this.buildNumbers.add(buildNumber);
+  /**
+   * @return summaries of the builds of this sub-project, in ascending order
+   *     of build number
+   */
+  @Exported(visibility=3)
+  public synchronized List<SubBuildSummary> getBuilds() {
+    List<SubBuildSummary> list = Lists.<SubBuildSummary>newArrayList();
+    for (int buildNumber : this.builds) {
+      SubBuildSummary summary = summaries.get(buildNumber);
+      if (summary == null) {
+        // Not seen since a restart; the queue wait is lost by now.
+        summary = getSummary(buildNumber);
+        AbstractBuild build = findBuild(buildNumber);
+        if (build != null && !build.isBuilding()) {
+          summary.onCompleted(build);
+        }
+      }
+      list.add(summary);
+    }
+    return list;
+  }
+
+  /*package*/ synchronized void setScheduledTime(long scheduledTime) {
+    if (this.scheduledTime == 0) {
+      this.scheduledTime = scheduledTime;
+    }
+  }
+
+  /**
+   * @return when the sub-project was first scheduled, e.g. once its
+   *     dependencies had passed, or 0 if unknown
+   */
+  @Exported(visibility=3)
+  public long getScheduledTime() {
+    return this.scheduledTime;
+  }
+
+  /**
+   * @return when the first build of the sub-project started, or 0
+   */
+  public long getStartTime() {
+    int[] current = this.builds;
+    if (current.length == 0) {
+      return 0;
+    }
+    AbstractBuild build = findBuild(current[0]);
+    return build == null ? 0 : build.getStartTimeInMillis();
+  }
+
+  /**
+   * @return when the latest build of the sub-project finished, or 0 if it
+   *     is still running
+   */
+  public long getEndTime() {
+    AbstractBuild build = getLatestBuild();
+    if (build == null || build.isBuilding()) {
+      return 0;
+    }
+    return build.getStartTimeInMillis() + build.getDuration();
+  }
+
+  /*package*/ void invalidate() {
+    this.result = null;
+  }
+
+  /**
+   * @return the build numbers of this sub-project, in ascending order
+   */
+  public int[] getBuildNumbers() {
+    return this.builds.clone();
   }
 
-  public SortedSet<Integer> getBuildNumbers() {
-    return this.buildNumbers;
+  public int getBuildCount() {
+    return this.builds.length;
   }
 
   public AbstractBuild getLatestBuild() {
-    return buildFinder.findBuild(getProjectName(), buildNumbers.last());
+    int[] current = this.builds;
+    if (current.length == 0) {
+      return null;
+    }
+    // Skip duplicates that lost a hedging race to an earlier build.
+    for (int i = current.length - 1; i > 0; i--) {
+      AbstractBuild build = findBuild(current[i]);
+      if (build == null
+          || !isInterruptedBy(build, HedgeInterruption.class)) {
+        return build;
+      }
+    }
+    return findBuild(current[0]);
+  }
+
+  /**
+   * @return the number of shards the sub-project was last built as
+   */
+  public int getShardCount() {
+    AbstractBuild build = getLatestBuild();
+    return build == null ? 1 : getShardCount(build);
+  }
+
+  /**
+   * @return the latest build of each shard, in shard order
+   */
+  public List<AbstractBuild> getLatestBuilds() {
+    AbstractBuild[] latest = findDecidingBuilds(false);
+    List<AbstractBuild> builds = Lists.<AbstractBuild>newArrayList();
+    for (AbstractBuild build : latest) {
+      if (build != null) {
+        builds.add(build);
+      }
+    }
+    if (builds.isEmpty()) {
+      builds.add(getLatestBuild());
+    }
+    return builds;
   }
 
   public Result getResult() {
-    Result result = Result.NOT_BUILT;
+    Result cached = this.result;
+    if (cached == null) {
+      cached = decide();
+    }
+    return cached;
+  }
 
-    if (buildNumbers.isEmpty()) {
-      return result;
+  /**
+   * @return whether every shard that ran was aborted because a sibling
+   *     sub-build failed first in fail-fast mode
+   */
+  public boolean isDiscarded() {
+    if (this.result == null) {
+      decide();
+    }
+    return this.discarded;
+  }
+
+  private static boolean isInterruptedBy(
+      AbstractBuild build, Class<? extends CauseOfInterruption> type) {
+    InterruptedBuildAction action =
+        build.getAction(InterruptedBuildAction.class);
+    if (action == null) {
+      return false;
+    }
+    for (CauseOfInterruption cause : action.getCauses()) {
+      if (type.isInstance(cause)) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    Iterator<Integer> it = buildNumbers.descendingIterator();
-    while (it.hasNext()) {
-      int buildNumber = it.next();
-      AbstractBuild build = buildFinder
-        .findBuild(getProjectName(), buildNumber);
+  /**
+   * Combines the results of the shards the sub-project was last built as;
+   * a sub-project that is not sharded is a single shard. Shards aborted by
+   * fail-fast are left out, since the failure that aborted them decides.
+   *
+   * @return the combined result, or {@code null} while a shard is building
+   */
+  private Result decide() {
+    AbstractBuild[] deciding = findDecidingBuilds(true);
+    Result[] shardResults = new Result[deciding.length];
+    boolean[] failFastAborted = new boolean[deciding.length];
+    for (int i = 0; i < deciding.length; i++) {
+      AbstractBuild build = deciding[i];
       if (build == null) {
-        build = findBuild(buildNumber);
+        // A shard that has not been built.
+        shardResults[i] = Result.NOT_BUILT;
+        continue;
       }
-      if (build != null) {
-        result = build.getResult();
-        if (result != Result.NOT_BUILT) {
-          return result;
-        }
+      shardResults[i] = build.getResult();
+      failFastAborted[i] =
+          isInterruptedBy(build, FailFastInterruption.class);
+    }
+    Result decided = combineShards(shardResults, failFastAborted);
+    this.discarded = isDiscarded(shardResults, failFastAborted);
+    this.result = decided;
+    return decided;
+  }
+
+  /**
+   * @param shardResults the result of each shard, {@code null} while it is
+   *     building or {@link Result#NOT_BUILT} if it has not been built
+   * @param failFastAborted whether each shard was aborted by fail-fast
+   * @return the combined result of the shards that were not aborted by
+   *     fail-fast, {@link Result#ABORTED} if all of them were, or
+   *     {@code null} while a shard is building
+   */
+  /*package*/ static Result combineShards(
+      Result[] shardResults, boolean[] failFastAborted) {
+    if (shardResults.length == 0) {
+      return Result.NOT_BUILT;
+    }
+    Result result = Result.SUCCESS;
+    boolean combined = false;
+    for (int i = 0; i < shardResults.length; i++) {
+      if (shardResults[i] == null) {
+        return null;
+      }
+      if (failFastAborted[i]) {
+        continue;
+      }
+      result = result.combine(shardResults[i]);
+      combined = true;
+    }
+    return combined ? result : Result.ABORTED;
+  }
+
+  /**
+   * @return whether some shard was aborted by fail-fast and every other
+   *     shard has not been built
+   */
+  /*package*/ static boolean isDiscarded(
+      Result[] shardResults, boolean[] failFastAborted) {
+    boolean aborted = false;
+    for (int i = 0; i < shardResults.length; i++) {
+      if (failFastAborted[i]) {
+        aborted = true;
+      } else if (shardResults[i] != Result.NOT_BUILT) {
+        return false;
       }
     }
+    return aborted;
+  }
+
+  /**
+   * Finds, for each shard of the latest build's shard count, the latest
+   * build that was not a losing hedge.
+   *
+   * @param skipNotBuilt whether to look past builds that did not run,
+   *     e.g. ones cancelled before starting
+   */
+  private AbstractBuild[] findDecidingBuilds(boolean skipNotBuilt) {
+    AbstractBuild[] deciding = null;
+    int found = 0;
+    int[] current = this.builds;
+    for (int i = current.length - 1; i >= 0; i--) {
+      AbstractBuild build = findBuild(current[i]);
+      if (build == null
+          || isInterruptedBy(build, HedgeInterruption.class)) {
+        continue;
+      }
+      int shardCount = getShardCount(build);
+      if (deciding == null) {
+        deciding = new AbstractBuild[shardCount];
+      } else if (shardCount != deciding.length) {
+        continue; // Built with another shard count.
+      }
+      int index = getShardIndex(build);
+      if (index >= deciding.length || deciding[index] != null) {
+        continue;
+      }
+      if (skipNotBuilt && build.getResult() == Result.NOT_BUILT) {
+        continue;
+      }
+      deciding[index] = build;
+      if (++found == deciding.length) {
+        break;
+      }
+    }
+    return deciding == null ? new AbstractBuild[0] : deciding;
+  }
+
+  private static int getShardCount(AbstractBuild build) {
+    MasterBuildCause cause =
+        (MasterBuildCause) build.getCause(MasterBuildCause.class);
+    return cause == null ? 1 : cause.getShardCount();
+  }
 
-    return result;
+  private static int getShardIndex(AbstractBuild build) {
+    MasterBuildCause cause =
+        (MasterBuildCause) build.getCause(MasterBuildCause.class);
+    return cause == null ? 0 : cause.getShardIndex();
   }
 
   private AbstractBuild findBuild(int buildNumber) {
-    if (getProject() != null) {
-      return buildFinder.findBuild(getProject(), buildNumber);
+    AbstractProject project = getProject();
+    if (project != null) {
+      return buildFinder.findBuild(project, buildNumber);
     } else {
       return buildFinder.findBuild(getProjectName(), buildNumber);
     }
@@ -4,7 +4,6 @@ import com.etsy.jenkins.MasterProject;
 import com.etsy.jenkins.SubProjectsAction;
 import com.etsy.jenkins.SubProjectsJobProperty;
 import com.etsy.jenkins.cli.handlers.MasterProjectOptionHandler;
-import com.etsy.jenkins.finder.BuildFinder;
 import com.etsy.jenkins.finder.ProjectFinder;
 
 import hudson.AbortException;
@@ -26,6 +25,7 @@ import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.TopLevelItem;
 import hudson.model.User;
+import hudson.model.queue.QueueTaskFuture;
 import hudson.util.EditDistance;
 
 import org.kohsuke.args4j.Argument;
@@ -42,13 +42,11 @@ import java.io.PrintStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
 
 @Extension
 public class BuildMasterCommand extends CLICommand {
 
   @Inject static Hudson hudson;
-  @Inject static BuildFinder buildFinder;
   @Inject static ProjectFinder projectFinder;
 
   @Override
@@ -176,16 +174,18 @@ public class BuildMasterCommand extends CLICommand {
      String user = Hudson.getAuthentication().getName();
 
      CLICause cause = new CLICause(user, a, sp);
-     Future<? extends AbstractBuild> f =
+     QueueTaskFuture<? extends AbstractBuild> f =
          job.scheduleBuild2(0, cause, a, sp);
+     if (f == null) {
+       throw new AbortException(
+           String.format(
+               "%s could not be scheduled.",
+               job.getDisplayName()));
+     }
 
-     AbstractBuild build = null;
-     do {
-       build = buildFinder.findBuild(job, cause);
-       stdout.println(
-           String.format("......... %s ( pending )", job.getDisplayName()));
-       rest();
-     } while(build == null);
+     stdout.println(
+         String.format("......... %s ( pending )", job.getDisplayName()));
+     AbstractBuild build = f.getStartCondition().get();
 
      stdout.println(
          String.format("......... %s ( %s%s )",
@@ -205,12 +205,6 @@ public class BuildMasterCommand extends CLICommand {
      return b.getResult().ordinal;
   }
 
-  private void rest() {
-    try {
-      Thread.sleep(7000L);
-    } catch (InterruptedException ignore) {}
-  }
-
   @Override
   protected void printUsageSummary(PrintStream stderr) {
     stderr.println(
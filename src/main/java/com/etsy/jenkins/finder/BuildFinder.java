@@ -1,5 +1,7 @@
 package com.etsy.jenkins.finder;
 
+import com.etsy.jenkins.MasterBuildCause;
+
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Cause;
@@ -14,10 +16,14 @@ import java.util.List;
 public class BuildFinder {
 
   private final ProjectFinder projectFinder;
+  private final SubBuildIndex subBuildIndex;
 
   @Inject
-  public BuildFinder(ProjectFinder projectFinder) {
+  public BuildFinder(
+      ProjectFinder projectFinder,
+      SubBuildIndex subBuildIndex) {
     this.projectFinder = projectFinder;
+    this.subBuildIndex = subBuildIndex;
   }
 
   public AbstractBuild findBuild(String projectName, int buildNumber) {
@@ -41,6 +47,15 @@ public class BuildFinder {
 
   public AbstractBuild findBuild(AbstractProject project, Cause cause) {
     if (project == null) return null;
+    if (cause instanceof MasterBuildCause) {
+      // Sub-builds are indexed as they start; no need to walk the history.
+      Integer buildNumber =
+          subBuildIndex.getBuildNumber(project, (MasterBuildCause) cause);
+      if (buildNumber != null) {
+        return findBuild(project, buildNumber);
+      }
+      return scanSince(project, (MasterBuildCause) cause);
+    }
     List<Run> builds = project.getBuilds();
     for (Run build : builds) {
       List<Cause> causes = build.getCauses();
@@ -50,5 +65,29 @@ public class BuildFinder {
     }
     return null;
   }
-}
 
+  /**
+   * Looks for the build started with {@code cause} among the builds since
+   * its master build, e.g. ones started before a restart emptied the index,
+   * indexing the sub-builds it passes on the way.
+   */
+  private AbstractBuild scanSince(
+      AbstractProject project, MasterBuildCause cause) {
+    Run<?,?> master = cause.getUpstreamRun();
+    if (master == null) {
+      return null;
+    }
+    long since = master.getTimeInMillis();
+    List<Run> builds = project.getBuilds();
+    for (Run build : builds) {
+      if (build.getTimeInMillis() < since) {
+        break; // Sub-builds start after their master build.
+      }
+      subBuildIndex.add((AbstractBuild) build);
+      if (build.getCauses().contains(cause)) {
+        return (AbstractBuild) build;
+      }
+    }
+    return null;
+  }
+}
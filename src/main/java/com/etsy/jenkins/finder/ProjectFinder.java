@@ -1,23 +1,181 @@
 package com.etsy.jenkins.finder;
 
+import hudson.Extension;
 import hudson.model.AbstractProject;
 import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
 
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import com.google.common.collect.Maps;
 import com.google.inject.Singleton;
 import com.google.inject.Inject;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves projects by full name, so projects in folders can be found too.
+ *
+ * Projects are cached by name until an item is created, deleted, renamed
+ * or moved. Once the whole item tree has been walked, names that are not
+ * cached are known not to exist, so the tree is walked at most once per
+ * change however often missing names are asked for. Lookups run as the system, so the cache is shared by all
+ * users; the caller's read permission is checked on each lookup.
+ */
 @Singleton
 public class ProjectFinder {
 
   private final Hudson instance;
 
+  private final ConcurrentMap<String, AbstractProject> cache =
+      Maps.<String, AbstractProject>newConcurrentMap();
+  // Bumped whenever the item tree changes.
+  private final AtomicInteger generation = new AtomicInteger();
+  // The generation every project was last cached in by a walk of the tree;
+  // the cache is complete while it is still the current one.
+  private volatile int walkedGeneration = -1;
+
   @Inject
   public ProjectFinder(Hudson instance) {
     this.instance = instance;
   }
 
   public AbstractProject findProject(String projectName) {
-    return (AbstractProject) this.instance.getItem(projectName);
+    AbstractProject project = cache.get(projectName);
+    if (project == null && !isComplete()) {
+      SecurityContext context = ACL.impersonate(ACL.SYSTEM);
+      try {
+        project = resolve(projectName);
+      } finally {
+        SecurityContextHolder.setContext(context);
+      }
+    }
+    return readable(project);
+  }
+
+  /**
+   * Resolves several projects at once. When more than one is not cached,
+   * all projects are cached in a single walk of the item tree instead of
+   * being looked up one by one.
+   *
+   * @return the projects found, by name, in the order of {@code projectNames}
+   */
+  public Map<String, AbstractProject> findProjects(
+      Collection<String> projectNames) {
+    Map<String, AbstractProject> projects =
+        Maps.<String, AbstractProject>newLinkedHashMap();
+    int misses = 0;
+    for (String projectName : projectNames) {
+      if (!cache.containsKey(projectName)) {
+        misses++;
+      }
+    }
+    SecurityContext context = ACL.impersonate(ACL.SYSTEM);
+    try {
+      if (misses > 1 && !isComplete()) {
+        int walking = generation.get();
+        List<AbstractProject> all =
+            instance.getAllItems(AbstractProject.class);
+        for (AbstractProject project : all) {
+          cache.putIfAbsent(project.getFullName(), project);
+        }
+        walkedGeneration = walking;
+      }
+      boolean complete = isComplete();
+      for (String projectName : projectNames) {
+        AbstractProject project = cache.get(projectName);
+        if (project == null && !complete) {
+          project = resolve(projectName);
+        }
+        if (project != null) {
+          projects.put(projectName, project);
+        }
+      }
+    } finally {
+      SecurityContextHolder.setContext(context);
+    }
+    Iterator<AbstractProject> iterator = projects.values().iterator();
+    while (iterator.hasNext()) {
+      if (readable(iterator.next()) == null) {
+        iterator.remove();
+      }
+    }
+    return projects;
+  }
+
+  private AbstractProject resolve(String projectName) {
+    AbstractProject project =
+        instance.getItemByFullName(projectName, AbstractProject.class);
+    if (project != null) {
+      cache.put(projectName, project);
+    }
+    return project;
+  }
+
+  /**
+   * @return whether every project is cached, as the tree has not changed
+   *     since it was last walked
+   */
+  private boolean isComplete() {
+    return walkedGeneration == generation.get();
+  }
+
+  private static AbstractProject readable(AbstractProject project) {
+    return project != null && project.hasPermission(Item.READ)
+        ? project : null;
   }
-}
 
+  /*package*/ void invalidate() {
+    generation.incrementAndGet();
+    cache.clear();
+  }
+
+  /**
+   * Drops cached projects whenever the item tree changes.
+   */
+  @Extension
+  public static class ItemListenerImpl extends ItemListener {
+
+    @Inject static ProjectFinder projectFinder;
+
+    @Override
+    public void onCreated(Item item) {
+      invalidate();
+    }
+
+    @Override
+    public void onDeleted(Item item) {
+      invalidate();
+    }
+
+    @Override
+    public void onRenamed(Item item, String oldName, String newName) {
+      invalidate();
+    }
+
+    @Override
+    public void onLocationChanged(
+        Item item, String oldFullName, String newFullName) {
+      invalidate();
+    }
+
+    @Override
+    public void onLoaded() {
+      invalidate();
+    }
+
+    private static void invalidate() {
+      if (projectFinder != null) {
+        projectFinder.invalidate();
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.etsy.jenkins.finder;
+
+import com.etsy.jenkins.MasterBuildCause;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Singleton;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory index from (master project, master build number, rebuild number,
+ * shard, sub-project) to the number of the sub-build started with that cause.
+ *
+ * Entries are added when a sub-build starts and evicted when it is deleted,
+ * so looking up a sub-build never walks the sub-project's build history.
+ * The index is not persisted; {@link BuildFinder} refills it from the
+ * builds since the master build on a miss, e.g. after a restart.
+ */
+@Singleton
+public class SubBuildIndex {
+
+  private final ConcurrentMap<String, Integer> buildNumbers =
+      Maps.<String, Integer>newConcurrentMap();
+
+  public void add(AbstractBuild build) {
+    for (Object cause : build.getCauses()) {
+      if (cause instanceof MasterBuildCause) {
+        buildNumbers.put(
+            keyOf(build.getProject(), (MasterBuildCause) cause),
+            build.getNumber());
+      }
+    }
+  }
+
+  public void remove(AbstractBuild build) {
+    for (Object cause : build.getCauses()) {
+      if (cause instanceof MasterBuildCause) {
+        buildNumbers.remove(
+            keyOf(build.getProject(), (MasterBuildCause) cause),
+            build.getNumber());
+      }
+    }
+  }
+
+  /**
+   * @return the number of the build of {@code project} started with
+   *     {@code cause}, or {@code null} if no such build has started.
+   */
+  public Integer getBuildNumber(
+      AbstractProject project, MasterBuildCause cause) {
+    return buildNumbers.get(keyOf(project, cause));
+  }
+
+  private static String keyOf(AbstractProject project, MasterBuildCause cause) {
+    return cause.getUpstreamProject()
+        + "#" + cause.getUpstreamBuild()
+        + "#" + cause.getRebuildNumber()
+        + "#" + cause.getShardIndex()
+        + "#" + project.getFullName();
+  }
+}
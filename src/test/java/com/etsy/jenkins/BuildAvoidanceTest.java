@@ -0,0 +1,87 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.SortedMap;
+
+public class BuildAvoidanceTest {
+
+  private static SortedMap<String, String> inputs(String... keysAndValues) {
+    SortedMap<String, String> inputs = Maps.<String, String>newTreeMap();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      inputs.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return inputs;
+  }
+
+  @Test
+  public void sameInputsHaveTheSameFingerprint() {
+    assertEquals(
+        BuildAvoidance.fingerprint("a",
+            inputs("param:X", "1", "file:f", "d41d8", "config", "c0")),
+        BuildAvoidance.fingerprint("a",
+            inputs("config", "c0", "file:f", "d41d8", "param:X", "1")));
+  }
+
+  @Test
+  public void fingerprintChangesWithAnyInput() {
+    String fingerprint = BuildAvoidance.fingerprint("a",
+        inputs("param:X", "1", "scm:GIT_COMMIT", "abc", "config", "c0"));
+    assertFalse(fingerprint.equals(BuildAvoidance.fingerprint("b",
+        inputs("param:X", "1", "scm:GIT_COMMIT", "abc", "config", "c0"))));
+    assertFalse(fingerprint.equals(BuildAvoidance.fingerprint("a",
+        inputs("param:X", "2", "scm:GIT_COMMIT", "abc", "config", "c0"))));
+    assertFalse(fingerprint.equals(BuildAvoidance.fingerprint("a",
+        inputs("param:X", "1", "scm:GIT_COMMIT", "abd", "config", "c0"))));
+    assertFalse(fingerprint.equals(BuildAvoidance.fingerprint("a",
+        inputs("param:X", "1", "scm:GIT_COMMIT", "abc", "config", "c1"))));
+    assertFalse(fingerprint.equals(BuildAvoidance.fingerprint("a",
+        inputs("param:X", "1", "param:Y", "",
+            "scm:GIT_COMMIT", "abc", "config", "c0"))));
+  }
+
+  @Test
+  public void remembersMostRecentlyUsedLast() {
+    LinkedHashMap<String, Integer> builds =
+        new LinkedHashMap<String, Integer>();
+    BuildAvoidance.remember(builds, "a", 1, 3);
+    BuildAvoidance.remember(builds, "b", 2, 3);
+    BuildAvoidance.remember(builds, "a", 3, 3);
+    assertEquals(ImmutableList.of("b", "a"),
+        Lists.newArrayList(builds.keySet()));
+    assertEquals(Integer.valueOf(3), builds.get("a"));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedBeyondTheMaximum() {
+    LinkedHashMap<String, Integer> builds =
+        new LinkedHashMap<String, Integer>();
+    BuildAvoidance.remember(builds, "a", 1, 3);
+    BuildAvoidance.remember(builds, "b", 2, 3);
+    BuildAvoidance.remember(builds, "c", 3, 3);
+    BuildAvoidance.remember(builds, "a", 4, 3);
+    BuildAvoidance.remember(builds, "d", 5, 3);
+    assertEquals(ImmutableList.of("c", "a", "d"),
+        Lists.newArrayList(builds.keySet()));
+  }
+
+  @Test
+  public void trimsRecordsLoadedOverTheMaximum() {
+    LinkedHashMap<String, Integer> builds =
+        new LinkedHashMap<String, Integer>();
+    for (int i = 0; i < 10; i++) {
+      builds.put("old" + i, i);
+    }
+    BuildAvoidance.remember(builds, "new", 10, 4);
+    assertEquals(ImmutableList.of("old7", "old8", "old9", "new"),
+        Lists.newArrayList(builds.keySet()));
+  }
+}
@@ -0,0 +1,148 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.Result;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class DefaultRetryPolicyTest {
+
+  private static final Map<String, Integer> NO_LIMITS =
+      Collections.<String, Integer>emptyMap();
+  private static final Set<Result> ANY_RESULT =
+      Collections.<Result>emptySet();
+
+  @Test
+  public void retriesOnlyResultsWorseThanSuccess() {
+    DefaultRetryPolicy policy = new DefaultRetryPolicy(1);
+    assertFalse(policy.isRetryable(Result.SUCCESS, "a", "a", 0));
+    assertFalse(policy.isRetryable(null, "a", "a", 0));
+    assertTrue(policy.isRetryable(Result.UNSTABLE, "a", "a", 0));
+    assertTrue(policy.isRetryable(Result.FAILURE, "a", "a", 0));
+  }
+
+  @Test
+  public void stopsAtTheRetryLimit() {
+    DefaultRetryPolicy policy = new DefaultRetryPolicy(2);
+    assertTrue(policy.isRetryable(Result.FAILURE, "a", "a", 1));
+    assertFalse(policy.isRetryable(Result.FAILURE, "a", "a", 2));
+  }
+
+  @Test
+  public void projectLimitsOverrideTheDefaultByFullNameFirst() {
+    DefaultRetryPolicy policy = new DefaultRetryPolicy(
+        1, ImmutableMap.of("folder/a", 3, "a", 0, "b", 0),
+        ANY_RESULT, null, 0, 0);
+    assertTrue(policy.isRetryable(Result.FAILURE, "folder/a", "a", 2));
+    assertFalse(policy.isRetryable(Result.FAILURE, "folder/a", "a", 3));
+    assertFalse(policy.isRetryable(Result.FAILURE, "folder/b", "b", 0));
+    assertTrue(policy.isRetryable(Result.FAILURE, "c", "c", 0));
+  }
+
+  @Test
+  public void retriesOnlyTheListedResults() {
+    DefaultRetryPolicy policy = new DefaultRetryPolicy(
+        1, NO_LIMITS, ImmutableSet.of(Result.FAILURE), null, 0, 0);
+    assertTrue(policy.isRetryable(Result.FAILURE, "a", "a", 0));
+    assertFalse(policy.isRetryable(Result.UNSTABLE, "a", "a", 0));
+    assertFalse(policy.isRetryable(Result.ABORTED, "a", "a", 0));
+  }
+
+  @Test
+  public void backoffDoublesWithJitterUpToTheMaximum() {
+    DefaultRetryPolicy policy =
+        new DefaultRetryPolicy(5, NO_LIMITS, ANY_RESULT, null, 1000, 0);
+    for (int i = 0; i < 100; i++) {
+      assertBetween(500, 1000, policy.getBackoff(0));
+      assertBetween(4000, 8000, policy.getBackoff(3));
+      assertBetween(TimeUnit.MINUTES.toMillis(15),
+          TimeUnit.MINUTES.toMillis(30), policy.getBackoff(40));
+    }
+  }
+
+  @Test
+  public void noBackoffRetriesRightAway() {
+    assertEquals(0, new DefaultRetryPolicy(1).getBackoff(3));
+  }
+
+  @Test
+  public void anyFlakinessPassesWithoutAMinimum() {
+    DefaultRetryPolicy policy = new DefaultRetryPolicy(1);
+    RetryHistory history = recorded(10, 0);
+    assertTrue(policy.isFlakyEnough(history));
+  }
+
+  @Test
+  public void projectWithoutHistoryIsProbedAboveHalf() {
+    DefaultRetryPolicy policy = flakinessAtLeast(0.8);
+    RetryHistory history = new RetryHistory();
+    assertEquals(0.5, history.getFlakiness(), 0.001);
+    assertTrue(policy.isFlakyEnough(history));
+  }
+
+  @Test
+  public void refusedProjectIsProbedEveryInterval() {
+    DefaultRetryPolicy policy = flakinessAtLeast(0.5);
+    RetryHistory history = recorded(8, 0);
+    for (int round = 0; round < 3; round++) {
+      for (int i = 1; i < RetryHistory.PROBE_INTERVAL; i++) {
+        assertFalse(policy.isFlakyEnough(history));
+      }
+      assertTrue(policy.isFlakyEnough(history));
+    }
+  }
+
+  @Test
+  public void projectClimbsBackOverTheThresholdThroughProbes() {
+    DefaultRetryPolicy policy = flakinessAtLeast(0.5);
+    RetryHistory history = recorded(4, 0);
+    // The project has become flaky: each probe recovers, 1/6 -> 5/10.
+    for (int i = 0; i < 4 * RetryHistory.PROBE_INTERVAL; i++) {
+      if (policy.isFlakyEnough(history)) {
+        history.record(true);
+      }
+    }
+    assertEquals(0.5, history.getFlakiness(), 0.001);
+    for (int i = 0; i < RetryHistory.PROBE_INTERVAL; i++) {
+      assertTrue(policy.isFlakyEnough(history));
+    }
+  }
+
+  @Test
+  public void flakinessIsSmoothedAndDecays() {
+    RetryHistory history = recorded(1, 1);
+    assertEquals(2.0 / 3, history.getFlakiness(), 0.001);
+    history = recorded(101, 0);
+    assertEquals(50, history.getRetries());
+    assertEquals(0, history.getRecoveries());
+  }
+
+  private static DefaultRetryPolicy flakinessAtLeast(double minFlakiness) {
+    return new DefaultRetryPolicy(
+        1, NO_LIMITS, ANY_RESULT, null, 0, minFlakiness);
+  }
+
+  private static RetryHistory recorded(int retries, int recoveries) {
+    RetryHistory history = new RetryHistory();
+    for (int i = 0; i < retries; i++) {
+      history.record(i < recoveries);
+    }
+    return history;
+  }
+
+  private static void assertBetween(long min, long max, long actual) {
+    assertTrue(actual + " not in [" + min + ", " + max + "]",
+        actual >= min && actual <= max);
+  }
+}
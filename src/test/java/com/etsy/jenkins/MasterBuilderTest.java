@@ -0,0 +1,186 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates the makespan of master builds scheduled in the orders
+ * MasterBuilder picks, against random orders, on durations drawn from a
+ * log-normal distribution as build times usually are.
+ */
+public class MasterBuilderTest {
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final int SUB_PROJECTS = 60;
+  private static final int EXECUTORS = 12;
+  private static final int RANDOM_ORDERS = 200;
+
+  @Test
+  public void largestFirstOrdersByValueDescending() {
+    List<String> names = Lists.newArrayList("a", "b", "c");
+    Collections.sort(names, MasterBuilder.largestFirst(
+        ImmutableMap.of("a", 1L, "b", 3L, "c", 2L)));
+    assertEquals(Lists.newArrayList("b", "c", "a"), names);
+  }
+
+  @Test
+  public void longestFirstShortensTheMakespan() {
+    Random random = new Random(7);
+    Map<String, Long> durations = newDurations(random);
+    SubProjectGraph graph = new SubProjectGraph("");
+
+    List<String> order = Lists.newArrayList(durations.keySet());
+    Collections.sort(order, MasterBuilder.largestFirst(durations));
+    long longestFirst = makespan(order, durations, graph);
+
+    long total = 0;
+    long worst = 0;
+    for (int i = 0; i < RANDOM_ORDERS; i++) {
+      Collections.shuffle(order, random);
+      long makespan = makespan(order, durations, graph);
+      total += makespan;
+      worst = Math.max(worst, makespan);
+    }
+    long average = total / RANDOM_ORDERS;
+    String times = String.format(
+        "longest first %d min, random %d min on average, %d at worst",
+        longestFirst / MINUTE, average / MINUTE, worst / MINUTE);
+    assertTrue(times, longestFirst * 10 < average * 9);
+    assertCloseToTheBound(longestFirst, durations, graph);
+  }
+
+  @Test
+  public void criticalPathFirstShortensTheMakespan() {
+    Random random = new Random(11);
+    Map<String, Long> durations = newDurations(random);
+    SubProjectGraph graph = newGraph(random);
+
+    List<String> order = Lists.newArrayList(durations.keySet());
+    Collections.sort(order, MasterBuilder.largestFirst(
+        graph.getCriticalPathLengths(durations)));
+    long criticalPathFirst = makespan(order, durations, graph);
+
+    long total = 0;
+    for (int i = 0; i < RANDOM_ORDERS; i++) {
+      Collections.shuffle(order, random);
+      total += makespan(order, durations, graph);
+    }
+    long average = total / RANDOM_ORDERS;
+    assertTrue(
+        String.format("critical path first %d min, random %d min on average",
+            criticalPathFirst / MINUTE, average / MINUTE),
+        criticalPathFirst < average);
+    assertCloseToTheBound(criticalPathFirst, durations, graph);
+  }
+
+  /**
+   * Asserts that {@code makespan} is within 5% of what no order can beat:
+   * the longest chain of dependencies, or all the work spread evenly over
+   * the executors.
+   */
+  private static void assertCloseToTheBound(long makespan,
+      Map<String, Long> durations, SubProjectGraph graph) {
+    long total = 0;
+    for (long duration : durations.values()) {
+      total += duration;
+    }
+    long bound = Math.max(total / EXECUTORS,
+        Collections.max(graph.getCriticalPathLengths(durations).values()));
+    assertTrue(
+        String.format("%d min against a bound of %d min",
+            makespan / MINUTE, bound / MINUTE),
+        makespan * 20 <= bound * 21);
+  }
+
+  /**
+   * @return durations with a median of five minutes and a long tail
+   */
+  private static Map<String, Long> newDurations(Random random) {
+    Map<String, Long> durations = Maps.<String, Long>newLinkedHashMap();
+    for (int i = 0; i < SUB_PROJECTS; i++) {
+      double minutes = 5 * Math.exp(random.nextGaussian());
+      durations.put("p" + i, (long) (minutes * MINUTE));
+    }
+    return durations;
+  }
+
+  /**
+   * @return a graph in which each sub-project may depend on up to two
+   *     sub-projects before it
+   */
+  private static SubProjectGraph newGraph(Random random) {
+    StringBuilder table = new StringBuilder();
+    for (int i = 1; i < SUB_PROJECTS; i++) {
+      table.append('p').append(i).append(':');
+      for (int j = 0; j < 2; j++) {
+        if (random.nextInt(3) == 0) {
+          table.append(" p").append(random.nextInt(i));
+        }
+      }
+      table.append('\n');
+    }
+    return new SubProjectGraph(table.toString());
+  }
+
+  /**
+   * Runs the sub-projects on {@link #EXECUTORS} executors, each free one
+   * taking the first sub-project in {@code order} whose dependencies have
+   * finished, as the queue and BuildWatcher do.
+   *
+   * @return when the last sub-project finishes
+   */
+  private static long makespan(List<String> order,
+      Map<String, Long> durations, SubProjectGraph graph) {
+    Set<String> started = Sets.<String>newHashSet();
+    Set<String> finished = Sets.<String>newHashSet();
+    // Finish time and name of each running sub-project.
+    PriorityQueue<Running> running = new PriorityQueue<Running>();
+    long now = 0;
+    while (finished.size() < order.size()) {
+      for (String name : order) {
+        if (running.size() == EXECUTORS) {
+          break;
+        }
+        if (!started.contains(name)
+            && finished.containsAll(graph.getDependencies(name))) {
+          started.add(name);
+          running.add(new Running(now + durations.get(name), name));
+        }
+      }
+      Running next = running.poll();
+      now = next.finish;
+      finished.add(next.name);
+    }
+    return now;
+  }
+
+  private static final class Running implements Comparable<Running> {
+
+    private final long finish;
+    private final String name;
+
+    private Running(long finish, String name) {
+      this.finish = finish;
+      this.name = name;
+    }
+
+    public int compareTo(Running other) {
+      return finish < other.finish ? -1 : (finish > other.finish ? 1 : 0);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+public class PathRulesTest {
+
+  private static Set<String> match(PathRules rules, String path) {
+    Set<String> projects = Sets.<String>newHashSet();
+    rules.match(path, projects);
+    return projects;
+  }
+
+  @Test
+  public void doubleStarMatchesAnyDepth() {
+    PathRules rules = new PathRules("src/payments/** payments-tests");
+    assertEquals(ImmutableSet.of("payments-tests"),
+        match(rules, "src/payments/Card.java"));
+    assertEquals(ImmutableSet.of("payments-tests"),
+        match(rules, "src/payments/api/v2/Card.java"));
+    assertTrue(match(rules, "src/search/Index.java").isEmpty());
+  }
+
+  @Test
+  public void doubleStarSlashMatchesNoDirectories() {
+    PathRules rules = new PathRules("docs/**/*.md docs");
+    assertEquals(ImmutableSet.of("docs"), match(rules, "docs/README.md"));
+    assertEquals(ImmutableSet.of("docs"), match(rules, "docs/a/b/c.md"));
+    assertTrue(match(rules, "docs/a/b/c.txt").isEmpty());
+  }
+
+  @Test
+  public void singleStarAndQuestionMarkStayInOneSegment() {
+    PathRules rules = new PathRules("lib/*.js js-tests\nv? versioned\n");
+    assertEquals(ImmutableSet.of("js-tests"), match(rules, "lib/app.js"));
+    assertTrue(match(rules, "lib/vendor/app.js").isEmpty());
+    assertEquals(ImmutableSet.of("versioned"), match(rules, "v1"));
+    assertTrue(match(rules, "v10").isEmpty());
+    assertTrue(match(rules, "v/").isEmpty());
+  }
+
+  @Test
+  public void leadingWildcardRulesApplyToEveryPath() {
+    PathRules rules = new PathRules(
+        "**/*.sql db-tests\nsrc/** unit-tests\n");
+    assertEquals(ImmutableSet.of("db-tests", "unit-tests"),
+        match(rules, "src/schema/users.sql"));
+    assertEquals(ImmutableSet.of("db-tests"), match(rules, "seed.sql"));
+  }
+
+  @Test
+  public void literalFilesAndLeadingSlashes() {
+    PathRules rules = new PathRules("/pom.xml all-tests");
+    assertEquals(ImmutableSet.of("all-tests"), match(rules, "pom.xml"));
+    assertEquals(ImmutableSet.of("all-tests"), match(rules, "/pom.xml"));
+    assertTrue(match(rules, "pom.xml.bak").isEmpty());
+  }
+
+  @Test
+  public void regexCharactersAreLiteral() {
+    PathRules rules = new PathRules("src/a+b/(x).txt odd");
+    assertEquals(ImmutableSet.of("odd"), match(rules, "src/a+b/(x).txt"));
+    assertTrue(match(rules, "src/aab/(x).txt").isEmpty());
+  }
+
+  @Test
+  public void collectsProjectsOfEveryMatchingRule() {
+    PathRules rules = new PathRules(
+        "# shared code\n"
+        + "src/common/** a b\n"
+        + "src/** c\n");
+    Set<String> projects = Sets.<String>newHashSet("already");
+    assertTrue(rules.match("src/common/Util.java", projects));
+    assertEquals(ImmutableSet.of("already", "a", "b", "c"), projects);
+    assertFalse(rules.match("README", projects));
+  }
+
+  @Test
+  public void rejectsRulesWithoutProjects() {
+    try {
+      new PathRules("src/**");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("src/**"));
+    }
+  }
+}
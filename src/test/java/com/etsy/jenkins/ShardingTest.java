@@ -0,0 +1,112 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import hudson.model.Result;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class ShardingTest {
+
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+  @Test
+  public void shardsAreNumberedFromZero() {
+    List<Shard> shards = Shard.of(null, 3);
+    assertEquals(3, shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      assertEquals(i, shards.get(i).getIndex());
+      assertEquals(3, shards.get(i).getCount());
+    }
+  }
+
+  @Test
+  public void unshardedProjectIsOneShard() {
+    List<Shard> shards = Shard.of(null, 1);
+    assertEquals(1, shards.size());
+    assertEquals(0, shards.get(0).getIndex());
+  }
+
+  @Test
+  public void autoShardCountFitsTheBudget() {
+    assertEquals(1, ShardingJobProperty.getAutoShardCount(
+        5 * MINUTE, 1, 10 * MINUTE, 0));
+    assertEquals(1, ShardingJobProperty.getAutoShardCount(
+        10 * MINUTE, 1, 10 * MINUTE, 0));
+    assertEquals(2, ShardingJobProperty.getAutoShardCount(
+        10 * MINUTE + 1, 1, 10 * MINUTE, 0));
+    assertEquals(6, ShardingJobProperty.getAutoShardCount(
+        60 * MINUTE, 1, 10 * MINUTE, 0));
+  }
+
+  @Test
+  public void autoShardCountScalesByTheLastShardCount() {
+    // Four shards of 15 minutes are an hour of work in all.
+    assertEquals(6, ShardingJobProperty.getAutoShardCount(
+        15 * MINUTE, 4, 10 * MINUTE, 0));
+  }
+
+  @Test
+  public void autoShardCountIsClamped() {
+    assertEquals(4, ShardingJobProperty.getAutoShardCount(
+        60 * MINUTE, 1, 10 * MINUTE, 4));
+    assertEquals(1, ShardingJobProperty.getAutoShardCount(
+        0, 1, 10 * MINUTE, 4));
+    assertEquals(Integer.MAX_VALUE, ShardingJobProperty.getAutoShardCount(
+        Long.MAX_VALUE / 2, 1, 1, 0));
+  }
+
+  @Test
+  public void parsesCountsAndAuto() {
+    Map<String, Integer> table = ShardingJobProperty.parse(
+        "# slow suites\n"
+        + "integration-tests: auto\n"
+        + "\n"
+        + "unit-tests : 3\r\n");
+    assertEquals(2, table.size());
+    assertEquals(Integer.valueOf(0), table.get("integration-tests"));
+    assertEquals(Integer.valueOf(3), table.get("unit-tests"));
+  }
+
+  @Test
+  public void rejectsBadCounts() {
+    for (String line : new String[] {"a: 0", "a: -1", "a: many", "a 3", ": 3"}) {
+      try {
+        ShardingJobProperty.parse(line);
+        fail(line);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains(line));
+      }
+    }
+  }
+
+  @Test
+  public void failedShardDecidesOverALaterShardAbortedByFailFast() {
+    // Shard 0 failed first; fail-fast then aborted shard 1, whose build
+    // has the higher number.
+    Result[] results = {Result.FAILURE, Result.ABORTED};
+    boolean[] aborted = {false, true};
+    assertEquals(Result.FAILURE, SubResult.combineShards(results, aborted));
+    assertFalse(SubResult.isDiscarded(results, aborted));
+  }
+
+  @Test
+  public void shardsAllAbortedByFailFastAreDiscarded() {
+    Result[] results = {Result.ABORTED, Result.NOT_BUILT};
+    boolean[] aborted = {true, false};
+    assertTrue(SubResult.isDiscarded(results, aborted));
+  }
+
+  @Test
+  public void shardStillBuildingLeavesTheResultOpen() {
+    Result[] results = {Result.SUCCESS, null};
+    assertEquals(null, SubResult.combineShards(results, new boolean[2]));
+  }
+}
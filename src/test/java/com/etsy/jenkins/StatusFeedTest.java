@@ -0,0 +1,100 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+public class StatusFeedTest {
+
+  @Test
+  public void everyPublishBumpsTheVersion() {
+    StatusFeed feed = new StatusFeed();
+    assertEquals(0, feed.getVersion());
+    feed.publish("a");
+    feed.publish("b");
+    feed.publish("a");
+    assertEquals(3, feed.getVersion());
+  }
+
+  @Test
+  public void reportsProjectsChangedSinceAVersion() {
+    StatusFeed feed = new StatusFeed();
+    feed.publish("a");
+    feed.publish("b");
+    feed.publish("c");
+    feed.publish("a");
+    Set<String> all = ImmutableSet.of("a", "b", "c", "d");
+    assertEquals(ImmutableSet.of("a", "b", "c"), feed.getChangedSince(0, all));
+    assertEquals(ImmutableSet.of("a", "c"), feed.getChangedSince(2, all));
+    assertTrue(feed.getChangedSince(4, all).isEmpty());
+  }
+
+  @Test
+  public void versionFromBeforeARestartGetsEverything() {
+    // Only "b" has changed since the restart; the viewer saw version 42
+    // of the feed from before it.
+    StatusFeed feed = new StatusFeed();
+    feed.publish("b");
+    assertEquals(ImmutableSet.of("a", "b", "c"),
+        feed.getChangedSince(42, ImmutableSet.of("a", "b", "c")));
+  }
+
+  @Test
+  public void eTagsDependOnVersionAndRendering() {
+    StatusFeed feed = new StatusFeed();
+    String full = feed.getETag(3, -1);
+    assertEquals(full, feed.getETag(3, -1));
+    assertFalse(full.equals(feed.getETag(4, -1)));
+    assertFalse(full.equals(feed.getETag(3, 0)));
+    assertFalse(feed.getETag(3, 1).equals(feed.getETag(3, 2)));
+    assertTrue(full, full.startsWith("\"") && full.endsWith("\""));
+  }
+
+  @Test
+  public void eTagsDifferAcrossRestarts() throws Exception {
+    StatusFeed before = new StatusFeed();
+    Thread.sleep(2);
+    StatusFeed after = new StatusFeed();
+    assertFalse(before.getETag(1, -1).equals(after.getETag(1, -1)));
+  }
+
+  @Test
+  public void awaitReturnsOnceSomethingChanges() throws Exception {
+    final StatusFeed feed = new StatusFeed();
+    Thread publisher = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        feed.publish("a");
+      }
+    };
+    publisher.start();
+    long start = System.currentTimeMillis();
+    assertEquals(1, feed.await(0, 10000));
+    assertTrue(System.currentTimeMillis() - start < 10000);
+    publisher.join();
+  }
+
+  @Test
+  public void awaitReturnsRightAwayWhenBehind() throws Exception {
+    StatusFeed feed = new StatusFeed();
+    feed.publish("a");
+    assertEquals(1, feed.await(0, 10000));
+  }
+
+  @Test
+  public void awaitTimesOutWithoutChanges() throws Exception {
+    StatusFeed feed = new StatusFeed();
+    assertEquals(0, feed.await(0, 20));
+  }
+}
@@ -0,0 +1,151 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load tests the monitor with thousands of simulated watchers, each of
+ * which hands work to a small worker pool and waits to be woken, as
+ * BuildWatcher does.
+ */
+public class SubBuildMonitorTest {
+
+  private static final int WATCHES = 5000;
+  private static final int ROUNDS = 3;
+  // The default size of the worker pool.
+  private static final int WORKERS = 4;
+
+  @Test
+  public void thousandsOfWatchesAllFinish() throws Exception {
+    ScheduledExecutorService timer =
+        Executors.newSingleThreadScheduledExecutor();
+    ExecutorService worker = Executors.newFixedThreadPool(WORKERS);
+    try {
+      SubBuildMonitor monitor = new SubBuildMonitor(timer, 60000L);
+      CountDownLatch finished = new CountDownLatch(WATCHES);
+      AtomicInteger overlaps = new AtomicInteger();
+      for (int i = 0; i < WATCHES; i++) {
+        String key = "master#" + i;
+        monitor.watch(key, new SimulatedWatch(
+            monitor, key, worker, ROUNDS, finished, overlaps, null));
+      }
+      assertTrue(finished.await(60, TimeUnit.SECONDS));
+      assertEquals(0, overlaps.get());
+    } finally {
+      timer.shutdownNow();
+      worker.shutdownNow();
+    }
+  }
+
+  @Test
+  public void aWatchWaitingOnSlowWorkHoldsUpNoOther() throws Exception {
+    ScheduledExecutorService timer =
+        Executors.newSingleThreadScheduledExecutor();
+    ExecutorService worker = Executors.newFixedThreadPool(WORKERS);
+    try {
+      SubBuildMonitor monitor = new SubBuildMonitor(timer, 60000L);
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch slowFinished = new CountDownLatch(1);
+      AtomicInteger overlaps = new AtomicInteger();
+      monitor.watch("slow#1", new SimulatedWatch(
+          monitor, "slow#1", worker, 1, slowFinished, overlaps, release));
+
+      CountDownLatch finished = new CountDownLatch(WATCHES);
+      for (int i = 0; i < WATCHES; i++) {
+        String key = "master#" + i;
+        monitor.watch(key, new SimulatedWatch(
+            monitor, key, worker, ROUNDS, finished, overlaps, null));
+      }
+      assertTrue(finished.await(60, TimeUnit.SECONDS));
+      assertFalse(slowFinished.await(0, TimeUnit.SECONDS));
+
+      release.countDown();
+      assertTrue(slowFinished.await(60, TimeUnit.SECONDS));
+      assertEquals(0, overlaps.get());
+    } finally {
+      timer.shutdownNow();
+      worker.shutdownNow();
+    }
+  }
+
+  /**
+   * Hands a short piece of work to the worker pool per round, or one that
+   * waits for {@code release} if given, and finishes after
+   * {@code rounds} of them.
+   */
+  private static final class SimulatedWatch implements SubBuildMonitor.Watch {
+
+    private final SubBuildMonitor monitor;
+    private final String key;
+    private final ExecutorService worker;
+    private final int rounds;
+    private final CountDownLatch finished;
+    private final AtomicInteger overlaps;
+    private final CountDownLatch release;
+    private final AtomicInteger checking = new AtomicInteger();
+
+    private FutureTask<Void> work;
+    private int done;
+
+    private SimulatedWatch(SubBuildMonitor monitor, String key,
+        ExecutorService worker, int rounds, CountDownLatch finished,
+        AtomicInteger overlaps, CountDownLatch release) {
+      this.monitor = monitor;
+      this.key = key;
+      this.worker = worker;
+      this.rounds = rounds;
+      this.finished = finished;
+      this.overlaps = overlaps;
+      this.release = release;
+    }
+
+    public boolean check(boolean tick) {
+      if (checking.incrementAndGet() > 1) {
+        overlaps.incrementAndGet();
+      }
+      try {
+        if (work != null) {
+          if (!work.isDone()) {
+            return false; // Woken again once done.
+          }
+          work = null;
+          if (++done == rounds) {
+            finished.countDown();
+            return true;
+          }
+        }
+        work = new FutureTask<Void>(new Callable<Void>() {
+          public Void call() throws Exception {
+            if (release != null) {
+              release.await();
+            } else {
+              Thread.sleep(1); // Reading a file, say.
+            }
+            return null;
+          }
+        }) {
+          @Override
+          protected void done() {
+            monitor.wakeAfter(key, SimulatedWatch.this, 0);
+          }
+        };
+        worker.execute(work);
+        return false;
+      } finally {
+        checking.decrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+public class SubProjectGraphTest {
+
+  @Test
+  public void parsesDependenciesAndSkipsComments() {
+    SubProjectGraph graph = new SubProjectGraph(
+        "# integration needs both builds\n"
+        + "integration: build-app build-db\n"
+        + "\n"
+        + "deploy: integration\r\n");
+    assertEquals(ImmutableSet.of("build-app", "build-db"),
+        graph.getDependencies("integration"));
+    assertEquals(ImmutableSet.of("integration"),
+        graph.getDependencies("deploy"));
+    assertTrue(graph.getDependencies("build-app").isEmpty());
+  }
+
+  @Test
+  public void mergesRepeatedLines() {
+    SubProjectGraph graph = new SubProjectGraph("a: b\na: c\n");
+    assertEquals(ImmutableSet.of("b", "c"), graph.getDependencies("a"));
+  }
+
+  @Test
+  public void rejectsLinesWithoutColon() {
+    try {
+      new SubProjectGraph("a b");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("a b"));
+    }
+  }
+
+  @Test
+  public void rejectsCycles() {
+    try {
+      new SubProjectGraph("a: b\nb: c\nc: a\n");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Dependency cycle"));
+    }
+  }
+
+  @Test
+  public void rejectsSelfDependency() {
+    try {
+      new SubProjectGraph("a: a");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Dependency cycle: a -> a", e.getMessage());
+    }
+  }
+
+  @Test
+  public void acceptsDiamonds() {
+    SubProjectGraph graph = new SubProjectGraph("d: b c\nb: a\nc: a\n");
+    assertEquals(ImmutableSet.of("b", "c"), graph.getDependencies("d"));
+  }
+
+  @Test
+  public void criticalPathRunsToTheEndOfTheLongestChain() {
+    // a -> b -> d and a -> c -> d, where c is the slow branch.
+    SubProjectGraph graph = new SubProjectGraph("b: a\nc: a\nd: b c\n");
+    Map<String, Long> lengths = graph.getCriticalPathLengths(
+        ImmutableMap.of("a", 1L, "b", 2L, "c", 10L, "d", 3L));
+    assertEquals(Long.valueOf(3), lengths.get("d"));
+    assertEquals(Long.valueOf(5), lengths.get("b"));
+    assertEquals(Long.valueOf(13), lengths.get("c"));
+    assertEquals(Long.valueOf(14), lengths.get("a"));
+  }
+
+  @Test
+  public void criticalPathIgnoresProjectsNotBuilt() {
+    SubProjectGraph graph = new SubProjectGraph("b: a\nc: b\n");
+    Map<String, Long> lengths = graph.getCriticalPathLengths(
+        ImmutableMap.of("a", 1L, "c", 5L));
+    assertEquals(Long.valueOf(1), lengths.get("a"));
+    assertEquals(Long.valueOf(5), lengths.get("c"));
+    assertEquals(2, lengths.size());
+  }
+}
@@ -0,0 +1,101 @@
+package com.etsy.jenkins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class SubResultTest {
+
+  // A synthetic history: master builds x sub-projects, each built once or,
+  // one time in five, twice.
+  private static final int MASTER_BUILDS = 2000;
+  private static final int SUB_PROJECTS = 50;
+
+  @Test
+  public void keepsBuildNumbersSortedAndUnique() {
+    SubResult result = new SubResult("a");
+    for (int buildNumber : new int[] {7, 3, 9, 3, 1, 9}) {
+      result.addBuildNumber(buildNumber);
+    }
+    assertTrue(Arrays.equals(new int[] {1, 3, 7, 9}, result.getBuildNumbers()));
+    assertEquals(4, result.getBuildCount());
+  }
+
+  @Test
+  public void getBuildNumbersReturnsACopy() {
+    SubResult result = new SubResult("a");
+    result.addBuildNumber(1);
+    result.getBuildNumbers()[0] = 2;
+    assertTrue(Arrays.equals(new int[] {1}, result.getBuildNumbers()));
+  }
+
+  /**
+   * Compares the heap retained by the build numbers of a large history,
+   * stored as SubResult stores them now and as the boxed set it used to
+   * keep.
+   */
+  @Test
+  public void buildNumbersTakeLessHeapThanABoxedSet() throws Exception {
+    long before = usedHeap();
+    List<TreeSet<Integer>> boxed = Lists.<TreeSet<Integer>>newArrayList();
+    Random random = new Random(42);
+    for (int i = 0; i < MASTER_BUILDS * SUB_PROJECTS; i++) {
+      TreeSet<Integer> buildNumbers = Sets.<Integer>newTreeSet();
+      for (int buildNumber : newBuildNumbers(random)) {
+        buildNumbers.add(buildNumber);
+      }
+      boxed.add(buildNumbers);
+    }
+    long boxedHeap = usedHeap() - before;
+    assertEquals(MASTER_BUILDS * SUB_PROJECTS, boxed.size());
+    boxed = null;
+
+    before = usedHeap();
+    List<int[]> compact = Lists.<int[]>newArrayList();
+    random = new Random(42);
+    for (int i = 0; i < MASTER_BUILDS * SUB_PROJECTS; i++) {
+      SubResult result = new SubResult("a");
+      for (int buildNumber : newBuildNumbers(random)) {
+        result.addBuildNumber(buildNumber);
+      }
+      // The same array SubResult keeps; the result itself also holds the
+      // build summaries, which the old records had no counterpart of.
+      compact.add(result.getBuildNumbers());
+    }
+    long compactHeap = usedHeap() - before;
+    assertEquals(MASTER_BUILDS * SUB_PROJECTS, compact.size());
+
+    assertTrue(
+        String.format("%d bytes as arrays, %d as boxed sets",
+            compactHeap, boxedHeap),
+        compactHeap * 3 < boxedHeap);
+  }
+
+  private static int[] newBuildNumbers(Random random) {
+    // Past the range of cached Integers, as real build numbers soon are.
+    int first = 1000 + random.nextInt(100000);
+    return random.nextInt(5) == 0
+        ? new int[] {first, first + 1 + random.nextInt(10)}
+        : new int[] {first};
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(20);
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+}